@@ -0,0 +1,100 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+// Making and binding rows on the main thread, as RecyclerView does while the list
+// scrolls or changes. The rows bound take turns being active, done and due, so
+// every part of a row is set each time.
+@RunWith(AndroidJUnit4.class)
+public class TodoAdapterBenchmark {
+
+    // Within the window TodoPager loads first, so every row is resident.
+    private static final int ROWS = 50;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private Instrumentation instrumentation;
+    private RecyclerView parent;
+    private TodoAdapter adapter;
+    private TodoAdapter.TodoViewHolder holder;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = new ContextThemeWrapper(instrumentation.getTargetContext(), R.style.Theme_Todomvc);
+        ArrayList<Todo> todos = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < ROWS; i++) {
+            long due = i % 2 == 0 ? now + (i - ROWS / 2) * 3_600_000L : 0;
+            todos.add(new Todo(new TodoId(1, i + 1), "Todo number " + i, i % 3 == 0, (ROWS - i) * Todo.ORDER_GAP,
+                    now, due));
+        }
+        CountDownLatch shown = new CountDownLatch(1);
+        instrumentation.runOnMainSync(() -> {
+            parent = new RecyclerView(context);
+            parent.setLayoutManager(new LinearLayoutManager(context));
+            adapter = new TodoAdapter();
+            adapter.setTodos(TodoCollection.of(todos, false), shown::countDown);
+        });
+        assertTrue(shown.await(5, TimeUnit.SECONDS));
+        instrumentation.runOnMainSync(() -> holder = adapter.onCreateViewHolder(parent, 0));
+    }
+
+    // Inflating a row and setting up its listeners
+    @Test
+    public void create() {
+        instrumentation.runOnMainSync(() -> {
+            BenchmarkState state = benchmarkRule.getState();
+            while (state.keepRunning()) {
+                adapter.onCreateViewHolder(parent, 0);
+            }
+        });
+    }
+
+    // A row scrolled into view, recycled from one that showed another todo
+    @Test
+    public void bind() {
+        instrumentation.runOnMainSync(() -> {
+            BenchmarkState state = benchmarkRule.getState();
+            int position = 0;
+            while (state.keepRunning()) {
+                adapter.onBindViewHolder(holder, position);
+                position = (position + 1) % ROWS;
+            }
+        });
+    }
+
+    // A row whose todo was only checked or unchecked
+    @Test
+    public void bindCompleted() {
+        List<Object> payloads = Collections.singletonList(TodoAdapter.PAYLOAD_COMPLETED);
+        instrumentation.runOnMainSync(() -> {
+            BenchmarkState state = benchmarkRule.getState();
+            int position = 0;
+            while (state.keepRunning()) {
+                adapter.onBindViewHolder(holder, position, payloads);
+                position = (position + 1) % ROWS;
+            }
+        });
+    }
+}
@@ -0,0 +1,135 @@
+package app.android.todomvc;
+
+import android.content.Context;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+// The storage write path as TodoRepository drives it, on a list of SIZE todos:
+// every flush is one TodoDatabase transaction, and a checkpoint after a change
+// writes the backup again. Each benchmark leaves the list as it found it, so the
+// timings do not drift while it runs.
+@RunWith(AndroidJUnit4.class)
+public class TodoStorageBenchmark {
+
+    private static final String NAME = "storage-benchmark.db";
+    private static final long LIST_ID = TodoList.DEFAULT_ID;
+    private static final int SIZE = 10_000;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private Context context;
+    private File backupDir;
+    private TodoDatabase database;
+    private ArrayList<Todo> todos;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(NAME);
+        database = new TodoDatabase(context, NAME, ArrayList::new, System::currentTimeMillis);
+        database.apply(newTodos(SIZE));
+        todos = database.readAll(LIST_ID);
+        backupDir = new File(context.getCacheDir(), "storage-benchmark");
+        backupDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+        context.deleteDatabase(NAME);
+        File[] files = backupDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        backupDir.delete();
+    }
+
+    // One tap: a single-row update in a transaction of its own
+    @Test
+    public void toggle() {
+        BenchmarkState state = benchmarkRule.getState();
+        TodoId id = todos.get(SIZE / 2).getId();
+        boolean completed = todos.get(SIZE / 2).isCompleted();
+        while (state.keepRunning()) {
+            completed = !completed;
+            database.apply(Collections.singletonList(TodoOp.toggle(id, completed)));
+        }
+    }
+
+    // Dropped halfway down the list and then back on top, each move planned from
+    // the stored rows around it
+    @Test
+    public void move() {
+        BenchmarkState state = benchmarkRule.getState();
+        TodoId id = todos.get(0).getId();
+        TodoId middle = todos.get(SIZE / 2).getId();
+        boolean onTop = true;
+        while (state.keepRunning()) {
+            TodoId aboveId = onTop ? middle : null;
+            database.applyPlans(Collections.singletonList(db -> db.planMove(id, aboveId)));
+            onTop = !onTop;
+        }
+    }
+
+    // A delete and its undo, which puts the todo back in its place
+    @Test
+    public void deleteAndUndo() {
+        BenchmarkState state = benchmarkRule.getState();
+        TodoId id = todos.get(SIZE / 2).getId();
+        while (state.keepRunning()) {
+            TodoDatabase.Applied applied = database.apply(Collections.singletonList(TodoOp.delete(id)));
+            database.apply(applied.getInverse());
+        }
+    }
+
+    // One batch of an import in one transaction. Removing it again is not timed.
+    @Test
+    public void addImportBatch() {
+        BenchmarkState state = benchmarkRule.getState();
+        ArrayList<TodoOp> batch = newTodos(TodoTransfer.BATCH_SIZE);
+        while (state.keepRunning()) {
+            TodoDatabase.Applied applied = database.apply(batch);
+            state.pauseTiming();
+            database.apply(applied.getInverse());
+            state.resumeTiming();
+        }
+    }
+
+    // What a checkpoint writes once anything has changed: every list, read from
+    // the database and written to a new backup file
+    @Test
+    public void backup() throws IOException {
+        BenchmarkState state = benchmarkRule.getState();
+        TodoBackup backup = new TodoBackup(backupDir);
+        while (state.keepRunning()) {
+            backup.write(database.readPartitions());
+        }
+    }
+
+    // Each goes on top as it is added. Some are done and some are due, like a list
+    // in use.
+    private static ArrayList<TodoOp> newTodos(int count) {
+        long now = System.currentTimeMillis();
+        ArrayList<TodoOp> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long due = i % 4 == 0 ? now + i * 60_000L : 0;
+            ops.add(TodoOp.add(LIST_ID,
+                    new Todo(TodoId.random(), "Todo number " + i, i % 3 == 0, 0, now, due)));
+        }
+        return ops;
+    }
+}
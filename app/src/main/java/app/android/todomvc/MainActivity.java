@@ -1,47 +1,118 @@
 package app.android.todomvc;
 
 
+import android.Manifest;
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
+import android.app.DatePickerDialog;
+import android.app.TimePickerDialog;
 import android.content.Context;
+import android.content.DialogInterface;
+import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Trace;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.text.format.DateFormat;
 import android.view.KeyEvent;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.EditText;
+import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.PopupMenu;
 import android.widget.TextView;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.google.android.material.snackbar.Snackbar;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Calendar;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
 
+    // About a screen and a half of rows, inflated once the main thread goes idle
+    private static final int PREINFLATED_ROWS = 24;
+    // Menu ids for the list picker; lists themselves use their index.
+    private static final int MENU_NEW_LIST = -1;
+    private static final int MENU_DELETE_LIST = -2;
+    private static final int MENU_IMPORT = -3;
+    private static final int MENU_EXPORT_CSV = -4;
+    private static final int MENU_EXPORT_JSON_LINES = -5;
+    private static final int MENU_RECENT_ONLY = -6;
+    private static final int MENU_SYNC_NOW = -7;
+    private static final int MENU_SYNC_SERVER = -8;
+
     private TodoViewModel viewModel;
     private TodoAdapter adapter;
+    // Rows are recycled through one pool that any list in this activity can share.
+    private final RecyclerView.RecycledViewPool rowPool = new RecyclerView.RecycledViewPool();
     private EditText etNewTodo;
+    private EditText etSearch;
+    private TextView tvListName;
+    private ImageButton btnToggleAll;
+    private ActionMode actionMode;
     private LinearLayout footer;
     private TextView tvItemCount, tvFilterAll, tvFilterActive, tvFilterCompleted;
     private FloatingActionButton fabClearCompleted;
 
     private FloatingActionButton fabFilter, fabFilterAll, fabFilterActive, fabFilterCompleted;
-    private TextView tvLabelAll, tvLabelActive, tvLabelCompleted;
+    private FloatingActionButton fabFilterToday, fabFilterOverdue;
+    private TextView tvLabelAll, tvLabelActive, tvLabelCompleted, tvLabelToday, tvLabelOverdue;
     private boolean isFabExpanded = false;
+    private boolean firstTodosDrawn = false;
+    private Snackbar transferBar;
+    private Snackbar saveFailingBar;
+
+    // The system file pickers for import and export
+    private final ActivityResultLauncher<String[]> importDocument = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) viewModel.importTodos(uri);
+            });
+    private final ActivityResultLauncher<String> exportCsvDocument = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument("text/csv"), uri -> {
+                if (uri != null) viewModel.exportTodos(uri, TodoTransfer.CSV);
+            });
+    private final ActivityResultLauncher<String> exportJsonLinesDocument = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument("application/x-ndjson"), uri -> {
+                if (uri != null) viewModel.exportTodos(uri, TodoTransfer.JSON_LINES);
+            });
+    // Reminders are only shown once this is granted; due dates work without it.
+    private final ActivityResultLauncher<String> notificationPermission = registerForActivityResult(
+            new ActivityResultContracts.RequestPermission(), granted -> {});
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Spans from here to the first frame that shows the list, see onFirstTodos()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection("MainActivity.firstTodos", 0);
+        }
+        Trace.beginSection("MainActivity.inflate");
         setContentView(R.layout.activity_main);
+        Trace.endSection();
 
         // Initialize Views
+        Trace.beginSection("MainActivity.findViews");
         etNewTodo = findViewById(R.id.etNewTodo);
+        etSearch = findViewById(R.id.etSearch);
+        tvListName = findViewById(R.id.tvListName);
+        btnToggleAll = findViewById(R.id.btnToggleAll);
         RecyclerView rvTodos = findViewById(R.id.rvTodos);
         footer = findViewById(R.id.footer);
         tvItemCount = findViewById(R.id.tvItemCount);
@@ -55,18 +126,42 @@ public class MainActivity extends AppCompatActivity {
         tvLabelAll = findViewById(R.id.tvLabelAll);
         tvLabelActive = findViewById(R.id.tvLabelActive);
         tvLabelCompleted = findViewById(R.id.tvLabelCompleted);
+        fabFilterToday = findViewById(R.id.fabFilterToday);
+        fabFilterOverdue = findViewById(R.id.fabFilterOverdue);
+        tvLabelToday = findViewById(R.id.tvLabelToday);
+        tvLabelOverdue = findViewById(R.id.tvLabelOverdue);
+        Trace.endSection();
 
         // Setup RecyclerView and ViewModel
         adapter = new TodoAdapter();
-        rvTodos.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        rvTodos.setLayoutManager(layoutManager);
+        rvTodos.setRecycledViewPool(rowPool);
         rvTodos.setAdapter(adapter);
+        adapter.preinflate(rvTodos, PREINFLATED_ROWS);
+        adapter.enableDrag(rvTodos);
+        // Let the adapter page in rows ahead of the scroll direction.
+        rvTodos.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                adapter.onVisibleRangeChanged(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition(), dy >= 0);
+            }
+        });
+        Trace.beginSection("MainActivity.createViewModel");
         viewModel = new ViewModelProvider(this).get(TodoViewModel.class);
+        Trace.endSection();
 
         // Observe LiveData
         viewModel.getFilteredTodos().observe(this, todos -> {
-            // Post the adapter update to the RecyclerView's message queue
-            // to prevent "cannot call this method while computing a layout" errors.
-            rvTodos.post(() -> adapter.setTodos(todos));
+            // The adapter loads only a window of the source around the visible rows.
+            Trace.beginSection("MainActivity.setTodos");
+            adapter.setTodos(todos, firstTodosDrawn ? null : () -> {
+                if (firstTodosDrawn) return;
+                firstTodosDrawn = true;
+                onFirstTodos(rvTodos);
+            });
+            Trace.endSection();
 
             // Footer visibility logic can remain outside the post as it doesn't affect the RecyclerView directly.
             if (viewModel.getActiveCount().getValue() > 0 || todos.size() > 0) {
@@ -76,6 +171,18 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        viewModel.getLists().observe(this, lists -> updateListName());
+        viewModel.getCurrentListId().observe(this, listId -> {
+            // Selections and undo belong to the list that was open.
+            if (actionMode != null) actionMode.finish();
+            updateListName();
+        });
+
+        viewModel.getTransferStatus().observe(this, this::showTransferStatus);
+        viewModel.getSaveFailing().observe(this, this::showSaveFailing);
+        viewModel.getSyncFailed().observe(this, this::showSyncFailed);
+        viewModel.getRemoved().observe(this, this::onRemoved);
+
         viewModel.getActiveCount().observe(this, count -> {
             String text = getResources().getQuantityString(R.plurals.item_count, count, count);
             tvItemCount.setText(text);
@@ -83,10 +190,12 @@ public class MainActivity extends AppCompatActivity {
 
         viewModel.getCurrentFilter().observe(this, filter -> {
             updateFabIcon(filter);
+            // Date views are sorted by due time, so there is no place to drag to.
+            adapter.setDragEnabled(!filter.isDateFilter());
         });
 
         viewModel.getCompletedCount().observe(this, count -> {
-            if (count > 0 && "Completed".equals(viewModel.getCurrentFilter().getValue())) {
+            if (count > 0 && viewModel.getCurrentFilter().getValue() == TodoFilter.COMPLETED) {
                 fabClearCompleted.show();
             } else {
                 fabClearCompleted.hide();
@@ -94,6 +203,7 @@ public class MainActivity extends AppCompatActivity {
         });
 
         viewModel.getTotalCount().observe(this, count -> {
+            btnToggleAll.setVisibility(count > 0 ? View.VISIBLE : View.INVISIBLE);
             if (count > 0) {
                 fabFilter.show();
             } else {
@@ -109,6 +219,34 @@ public class MainActivity extends AppCompatActivity {
         setupListeners();
     }
 
+    // Ends the startup trace once the first rows of the open list are drawn.
+    private void onFirstTodos(RecyclerView rvTodos) {
+        rvTodos.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                rvTodos.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                    Trace.endAsyncSection("MainActivity.firstTodos", 0);
+                }
+                return true;
+            }
+        });
+    }
+
+    // The process can be killed any time after this, so nothing is left queued.
+    @Override
+    protected void onStop() {
+        super.onStop();
+        viewModel.checkpoint();
+    }
+
+    // Appends the metrics to: adb shell dumpsys activity app.android.todomvc/.MainActivity
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        TodoMetrics.dump(writer);
+    }
+
     private void submitTodo() {
         String todoText = etNewTodo.getText().toString();
         if (!todoText.trim().isEmpty()) {
@@ -138,45 +276,303 @@ public class MainActivity extends AppCompatActivity {
             return false;
         });
 
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                viewModel.setSearchQuery(s.toString());
+            }
+        });
+
         // Adapter click listeners
         adapter.setOnTodoClickListener(new TodoAdapter.OnTodoClickListener() {
             @Override
-            public void onToggleClick(String id) {
-                viewModel.toggleTodo(id);
+            public void onToggleClick(TodoId id, boolean completed) {
+                viewModel.toggleTodo(id, completed);
             }
 
             @Override
-            public void onEditClick(String id, String currentTitle) {
-                showEditDialog(id, currentTitle);
+            public void onEditClick(TodoId id, String currentTitle, long due) {
+                showEditDialog(id, currentTitle, due);
             }
 
             @Override
-            public void onDeleteClick(String id) {
+            public void onDeleteClick(TodoId id) {
                 viewModel.deleteTodo(id);
             }
+
+            @Override
+            public void onMoveTodo(TodoId id, TodoId aboveId) {
+                viewModel.moveTodo(id, aboveId);
+            }
+
+            @Override
+            public void onSelectionChanged(int count) {
+                if (count == 0) {
+                    if (actionMode != null) actionMode.finish();
+                    return;
+                }
+                if (actionMode == null) {
+                    actionMode = startSupportActionMode(selectionCallback);
+                }
+                if (actionMode != null) {
+                    actionMode.setTitle(getResources().getQuantityString(R.plurals.selected_count, count, count));
+                }
+            }
         });
 
+        btnToggleAll.setOnClickListener(v -> viewModel.toggleAll());
+
+        tvListName.setOnClickListener(v -> showListPicker());
+
 
         // NEW: Main FAB listener to toggle menu
         fabFilter.setOnClickListener(v -> toggleFabMenu());
 
         // NEW: Mini FAB listeners
         fabFilterAll.setOnClickListener(v -> {
-            viewModel.setFilter("All");
+            viewModel.setFilter(TodoFilter.ALL);
             collapseFabMenu();
         });
         fabFilterActive.setOnClickListener(v -> {
-            viewModel.setFilter("Active");
+            viewModel.setFilter(TodoFilter.ACTIVE);
             collapseFabMenu();
         });
         fabFilterCompleted.setOnClickListener(v -> {
-            viewModel.setFilter("Completed");
+            viewModel.setFilter(TodoFilter.COMPLETED);
+            collapseFabMenu();
+        });
+        fabFilterToday.setOnClickListener(v -> {
+            viewModel.setFilter(TodoFilter.TODAY);
+            collapseFabMenu();
+        });
+        fabFilterOverdue.setOnClickListener(v -> {
+            viewModel.setFilter(TodoFilter.OVERDUE);
             collapseFabMenu();
         });
 
         fabClearCompleted.setOnClickListener(v -> viewModel.clearCompleted());
     }
 
+    private void updateListName() {
+        String name = currentListName();
+        if (name != null) tvListName.setText(name + " \u25BE");
+    }
+
+    private String currentListName() {
+        long listId = viewModel.getCurrentListId().getValue();
+        for (TodoList list : viewModel.getLists().getValue()) {
+            if (list.getId() == listId) return list.getName();
+        }
+        return null;
+    }
+
+    // Stays up while changes are not reaching the disk, so they are not thought saved.
+    private void showSaveFailing(boolean failing) {
+        if (!failing) {
+            if (saveFailingBar != null) saveFailingBar.dismiss();
+            saveFailingBar = null;
+        } else if (saveFailingBar == null) {
+            saveFailingBar = Snackbar.make(findViewById(R.id.rvTodos),
+                    "Changes could not be saved. Retrying…", Snackbar.LENGTH_INDEFINITE);
+            saveFailingBar.show();
+        }
+    }
+
+    // The changes are sent again by the next sync.
+    private void showSyncFailed(boolean failed) {
+        if (!failed) return;
+        viewModel.onSyncFailedShown();
+        Snackbar.make(findViewById(R.id.rvTodos), "Could not sync. Changes will be sent next time.",
+                Snackbar.LENGTH_SHORT).show();
+    }
+
+    // One snackbar follows an import or export from start to finish.
+    private void showTransferStatus(TodoTransfer.Status status) {
+        if (status == null) return;
+        boolean importing = status.isImporting();
+        int count = status.getTodos();
+        String text;
+        switch (status.getState()) {
+            case TodoTransfer.Status.RUNNING:
+                text = getResources().getQuantityString(
+                        importing ? R.plurals.todos_importing : R.plurals.todos_exporting, count, count);
+                break;
+            case TodoTransfer.Status.DONE:
+                text = getResources().getQuantityString(
+                        importing ? R.plurals.todos_imported : R.plurals.todos_exported, count, count);
+                break;
+            default:
+                text = importing ? "Import failed" : "Export failed";
+                break;
+        }
+        if (status.getState() != TodoTransfer.Status.RUNNING) {
+            if (transferBar != null) transferBar.dismiss();
+            transferBar = null;
+            Snackbar.make(findViewById(R.id.rvTodos), text, Snackbar.LENGTH_LONG).show();
+            viewModel.onTransferStatusShown();
+        } else if (transferBar == null || !transferBar.isShownOrQueued()) {
+            transferBar = Snackbar.make(findViewById(R.id.rvTodos), text, Snackbar.LENGTH_INDEFINITE);
+            transferBar.show();
+        } else {
+            transferBar.setText(text);
+        }
+    }
+
+    // Lists every list with how many todos are left in it, plus New and Delete.
+    private void showListPicker() {
+        List<TodoList> lists = viewModel.getLists().getValue();
+        long currentId = viewModel.getCurrentListId().getValue();
+        PopupMenu popup = new PopupMenu(this, tvListName);
+        Menu menu = popup.getMenu();
+        for (int i = 0; i < lists.size(); i++) {
+            TodoList list = lists.get(i);
+            // The open list's own counts are newer than the ones read with the lists
+            int active = list.getId() == currentId ? viewModel.getActiveCount().getValue() : list.getActiveCount();
+            menu.add(Menu.NONE, i, i, list.getName() + " (" + active + ")")
+                    .setCheckable(true)
+                    .setChecked(list.getId() == currentId);
+        }
+        menu.add(Menu.NONE, MENU_NEW_LIST, lists.size(), "New list");
+        if (lists.size() > 1) {
+            menu.add(Menu.NONE, MENU_DELETE_LIST, lists.size() + 1, "Delete list");
+        }
+        menu.add(Menu.NONE, MENU_IMPORT, lists.size() + 2, "Import from file");
+        menu.add(Menu.NONE, MENU_EXPORT_CSV, lists.size() + 3, "Export as CSV");
+        menu.add(Menu.NONE, MENU_EXPORT_JSON_LINES, lists.size() + 4, "Export as JSON lines");
+        menu.add(Menu.NONE, MENU_RECENT_ONLY, lists.size() + 5, "Only added in the last 7 days")
+                .setCheckable(true)
+                .setChecked(viewModel.getRecentOnly().getValue());
+        if (viewModel.isSyncEnabled()) {
+            menu.add(Menu.NONE, MENU_SYNC_NOW, lists.size() + 6, "Sync now");
+        }
+        menu.add(Menu.NONE, MENU_SYNC_SERVER, lists.size() + 7, "Sync server");
+        String fileName = currentListName() != null ? currentListName() : "todos";
+        popup.setOnMenuItemClickListener(item -> {
+            int itemId = item.getItemId();
+            if (itemId == MENU_NEW_LIST) {
+                showNewListDialog();
+            } else if (itemId == MENU_DELETE_LIST) {
+                showDeleteListDialog(currentId);
+            } else if (itemId == MENU_IMPORT) {
+                importDocument.launch(new String[] {"text/*", "application/json", "application/x-ndjson",
+                        "application/octet-stream"});
+            } else if (itemId == MENU_EXPORT_CSV) {
+                exportCsvDocument.launch(fileName + ".csv");
+            } else if (itemId == MENU_EXPORT_JSON_LINES) {
+                exportJsonLinesDocument.launch(fileName + ".jsonl");
+            } else if (itemId == MENU_RECENT_ONLY) {
+                viewModel.setRecentOnly(!item.isChecked());
+            } else if (itemId == MENU_SYNC_NOW) {
+                viewModel.sync();
+            } else if (itemId == MENU_SYNC_SERVER) {
+                showSyncServerDialog();
+            } else {
+                viewModel.openList(lists.get(itemId).getId());
+            }
+            return true;
+        });
+        popup.show();
+    }
+
+    private void showNewListDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("New list");
+        final EditText input = new EditText(this);
+        input.setHint("Name");
+        builder.setView(input);
+        builder.setPositiveButton("Create", (dialog, which) -> viewModel.createList(input.getText().toString()));
+        builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
+        builder.show();
+    }
+
+    // An empty URL turns sync off.
+    private void showSyncServerDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Sync server");
+        final EditText input = new EditText(this);
+        input.setHint("https://");
+        input.setText(viewModel.getSyncUrl());
+        builder.setView(input);
+        builder.setPositiveButton("Save", (dialog, which) -> {
+            if (!viewModel.setSyncUrl(input.getText().toString())) {
+                Snackbar.make(findViewById(R.id.rvTodos), "Not a web address", Snackbar.LENGTH_SHORT).show();
+            }
+        });
+        builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
+        builder.show();
+    }
+
+    private void showDeleteListDialog(long listId) {
+        new AlertDialog.Builder(this)
+                .setMessage("Delete this list and all its todos?")
+                .setPositiveButton("Delete", (dialog, which) -> viewModel.deleteList(listId))
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.cancel())
+                .show();
+    }
+
+    // Offers to bring back todos that were just removed.
+    private void onRemoved(TodoViewModel.Removed removed) {
+        if (removed == null) return;
+        viewModel.onRemovedShown();
+        showUndo(removed.getChangeId(), removed.getCount());
+    }
+
+    private void showUndo(long changeId, int removed) {
+        String text = getResources().getQuantityString(R.plurals.todos_deleted, removed, removed);
+        Snackbar.make(findViewById(R.id.rvTodos), text, Snackbar.LENGTH_LONG)
+                .setAction("Undo", v -> {
+                    if (viewModel.undo(changeId)) showRedo(changeId, removed);
+                })
+                .show();
+    }
+
+    private void showRedo(long changeId, int removed) {
+        String text = getResources().getQuantityString(R.plurals.todos_restored, removed, removed);
+        Snackbar.make(findViewById(R.id.rvTodos), text, Snackbar.LENGTH_LONG)
+                .setAction("Redo", v -> viewModel.redo(changeId))
+                .show();
+    }
+
+    // Contextual bar shown while rows are selected; its actions apply as one batch.
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            int itemId = item.getItemId();
+            if (itemId == R.id.actionToggleSelected) {
+                viewModel.toggleTodos(adapter.getSelection());
+            } else if (itemId == R.id.actionDeleteSelected) {
+                viewModel.deleteTodos(adapter.getSelection());
+            } else {
+                return false;
+            }
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            actionMode = null;
+            adapter.clearSelection();
+        }
+    };
+
     private void toggleFabMenu() {
         if (isFabExpanded) {
             collapseFabMenu();
@@ -205,6 +601,16 @@ public class MainActivity extends AppCompatActivity {
         tvLabelCompleted.setVisibility(View.VISIBLE);
         fabFilterCompleted.animate().translationY(- 3 * getResources().getDimension(R.dimen.fab_margin)).alpha(1f).setDuration(200).start();
         tvLabelCompleted.animate().translationY(- 3 * getResources().getDimension(R.dimen.fab_margin)).alpha(1f).setDuration(200).start();
+
+        fabFilterToday.setVisibility(View.VISIBLE);
+        tvLabelToday.setVisibility(View.VISIBLE);
+        fabFilterToday.animate().translationY(- 4 * getResources().getDimension(R.dimen.fab_margin)).alpha(1f).setDuration(200).start();
+        tvLabelToday.animate().translationY(- 4 * getResources().getDimension(R.dimen.fab_margin)).alpha(1f).setDuration(200).start();
+
+        fabFilterOverdue.setVisibility(View.VISIBLE);
+        tvLabelOverdue.setVisibility(View.VISIBLE);
+        fabFilterOverdue.animate().translationY(- 5 * getResources().getDimension(R.dimen.fab_margin)).alpha(1f).setDuration(200).start();
+        tvLabelOverdue.animate().translationY(- 5 * getResources().getDimension(R.dimen.fab_margin)).alpha(1f).setDuration(200).start();
     }
 
     private void collapseFabMenu() {
@@ -251,25 +657,41 @@ public class MainActivity extends AppCompatActivity {
         fabFilterCompleted.setVisibility(View.INVISIBLE);
         tvLabelCompleted.setVisibility(View.INVISIBLE);
         tvLabelCompleted.animate().translationY(0).alpha(0f).setDuration(200).start();
+
+        fabFilterToday.animate().translationY(0).alpha(0f).setDuration(200).start();
+        fabFilterToday.setVisibility(View.INVISIBLE);
+        tvLabelToday.setVisibility(View.INVISIBLE);
+        tvLabelToday.animate().translationY(0).alpha(0f).setDuration(200).start();
+
+        fabFilterOverdue.animate().translationY(0).alpha(0f).setDuration(200).start();
+        fabFilterOverdue.setVisibility(View.INVISIBLE);
+        tvLabelOverdue.setVisibility(View.INVISIBLE);
+        tvLabelOverdue.animate().translationY(0).alpha(0f).setDuration(200).start();
     }
 
     // NEW: Method to update the main FAB's icon based on the filter
-    private void updateFabIcon(String filter) {
+    private void updateFabIcon(TodoFilter filter) {
         switch (filter) {
-            case "Active":
+            case ACTIVE:
                 fabFilter.setImageResource(R.drawable.ic_filter_active);
                 break;
-            case "Completed":
+            case COMPLETED:
                 fabFilter.setImageResource(R.drawable.ic_filter_completed);
                 break;
-            case "All":
+            case TODAY:
+                fabFilter.setImageResource(R.drawable.ic_filter_today);
+                break;
+            case OVERDUE:
+                fabFilter.setImageResource(R.drawable.ic_filter_overdue);
+                break;
+            case ALL:
             default:
                 fabFilter.setImageResource(R.drawable.ic_filter_all);
                 break;
         }
     }
 
-    private void showEditDialog(String id, String currentTitle) {
+    private void showEditDialog(TodoId id, String currentTitle, long due) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         final EditText input = new EditText(this);
         input.setText(currentTitle);
@@ -278,15 +700,54 @@ public class MainActivity extends AppCompatActivity {
 
         builder.setPositiveButton("OK", (dialog, which) -> {
             String newTitle = input.getText().toString();
-            viewModel.updateTodo(id, newTitle);
+            if (newTitle.trim().isEmpty()) {
+                // An empty title deletes the todo
+                viewModel.deleteTodo(id);
+            } else {
+                viewModel.updateTodo(id, newTitle);
+            }
         });
         builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
+        builder.setNeutralButton("Due date", (dialog, which) -> showDueDateDialog(id, due));
         builder.show();
     }
 
-    private void updateFilterStyles(String activeFilter) {
-        tvFilterAll.setTextColor(activeFilter.equals("All") ? 0xFFe77f11 : 0xFF777777);
-        tvFilterActive.setTextColor(activeFilter.equals("Active") ? 0xFFe77f11 : 0xFF777777);
-        tvFilterCompleted.setTextColor(activeFilter.equals("Completed") ? 0xFFe77f11 : 0xFF777777);
+    // Picks a date, then a time on it. A todo that has a due date can also lose it.
+    private void showDueDateDialog(TodoId id, long due) {
+        Calendar calendar = Calendar.getInstance();
+        if (due != 0) calendar.setTimeInMillis(due);
+        DatePickerDialog dialog = new DatePickerDialog(this, (view, year, month, day) -> {
+            calendar.set(year, month, day);
+            showDueTimeDialog(id, calendar);
+        }, calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH));
+        if (due != 0) {
+            dialog.setButton(DialogInterface.BUTTON_NEUTRAL, "No due date", (d, which) -> viewModel.setDue(id, 0));
+        }
+        dialog.show();
+    }
+
+    private void showDueTimeDialog(TodoId id, Calendar calendar) {
+        new TimePickerDialog(this, (view, hour, minute) -> {
+            calendar.set(Calendar.HOUR_OF_DAY, hour);
+            calendar.set(Calendar.MINUTE, minute);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            viewModel.setDue(id, calendar.getTimeInMillis());
+            requestNotificationPermission();
+        }, calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE), DateFormat.is24HourFormat(this)).show();
+    }
+
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                        != PackageManager.PERMISSION_GRANTED) {
+            notificationPermission.launch(Manifest.permission.POST_NOTIFICATIONS);
+        }
+    }
+
+    private void updateFilterStyles(TodoFilter activeFilter) {
+        tvFilterAll.setTextColor(activeFilter == TodoFilter.ALL ? 0xFFe77f11 : 0xFF777777);
+        tvFilterActive.setTextColor(activeFilter == TodoFilter.ACTIVE ? 0xFFe77f11 : 0xFF777777);
+        tvFilterCompleted.setTextColor(activeFilter == TodoFilter.COMPLETED ? 0xFFe77f11 : 0xFF777777);
     }
 }
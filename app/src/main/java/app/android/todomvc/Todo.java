@@ -1,22 +1,61 @@
 package app.android.todomvc;
 
-public class Todo {
-    private String id;
-    private String title;
-    private boolean completed;
+// An immutable todo. Changes produce a new Todo, so lists handed out earlier
+// (to the adapter, the writer thread or the differ) never see them.
+public final class Todo {
+    // New todos are spaced this far apart in order, so a todo can be moved between
+    // any two by giving it an order halfway between theirs.
+    public static final long ORDER_GAP = 1L << 20;
+    // Titles are cut to this many chars wherever they come in, typed or imported,
+    // so each fits the 64KB strings of the binary formats, see TodoCodec.
+    public static final int MAX_TITLE_LENGTH = 10_000;
 
-    public Todo(String id, String title, boolean completed) {
+    private final TodoId id;
+    private final String title;
+    private final boolean completed;
+    // Position in the list, higher is nearer the top. Stored as the todo's row position.
+    private final long order;
+    // Epoch millis; 0 if unknown (todos from older versions) or not set.
+    private final long created;
+    private final long due;
+
+    public Todo(TodoId id, String title, boolean completed) {
+        this(id, title, completed, 0);
+    }
+
+    public Todo(TodoId id, String title, boolean completed, long order) {
+        this(id, title, completed, order, 0, 0);
+    }
+
+    public Todo(TodoId id, String title, boolean completed, long order, long created, long due) {
         this.id = id;
         this.title = title;
         this.completed = completed;
+        this.order = order;
+        this.created = created;
+        this.due = due;
     }
 
     // Getters
-    public String getId() { return id; }
+    public TodoId getId() { return id; }
     public String getTitle() { return title; }
     public boolean isCompleted() { return completed; }
+    public long getOrder() { return order; }
+    public long getCreated() { return created; }
+    public long getDue() { return due; }
+    public boolean hasDue() { return due != 0; }
+
+    // Also used for list names. Never splits a surrogate pair.
+    public static String capTitle(String title) {
+        if (title.length() <= MAX_TITLE_LENGTH) return title;
+        int end = MAX_TITLE_LENGTH;
+        if (Character.isHighSurrogate(title.charAt(end - 1))) end--;
+        return title.substring(0, end);
+    }
 
-    // Setters
-    public void setTitle(String title) { this.title = title; }
-    public void setCompleted(boolean completed) { this.completed = completed; }
+    // Copies with one field changed
+    public Todo withTitle(String title) { return new Todo(id, title, completed, order, created, due); }
+    public Todo withCompleted(boolean completed) { return new Todo(id, title, completed, order, created, due); }
+    public Todo withOrder(long order) { return new Todo(id, title, completed, order, created, due); }
+    public Todo withDue(long due) { return new Todo(id, title, completed, order, created, due); }
 }
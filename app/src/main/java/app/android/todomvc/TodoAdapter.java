@@ -1,94 +1,373 @@
 package app.android.todomvc;
 
-import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Paint;
+import android.os.Looper;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder> {
 
-    private ArrayList<Todo> todos = new ArrayList<>();
+    // Payload for a change that only flipped the completed state.
+    static final Object PAYLOAD_COMPLETED = new Object();
+    // Payload for a row that was selected or deselected.
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    private static final int VIEW_TYPE_TODO = 0;
+    // Shared so binding does not wrap the color in a new ColorStateList each time
+    private static final ColorStateList COMPLETED_TEXT_COLOR = ColorStateList.valueOf(0xFF777777);
+    private static final ColorStateList ACTIVE_TEXT_COLOR = ColorStateList.valueOf(0xFF4d4d4d);
+    private static final ColorStateList OVERDUE_TEXT_COLOR = ColorStateList.valueOf(0xFFaf2f2f);
+    private static final int DUE_FORMAT = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME
+            | DateUtils.FORMAT_ABBREV_MONTH;
+
+    private static final DiffUtil.ItemCallback<Todo> DIFF_CALLBACK = new DiffUtil.ItemCallback<Todo>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Todo oldItem, @NonNull Todo newItem) {
+            return oldItem.getId().equals(newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Todo oldItem, @NonNull Todo newItem) {
+            return oldItem.isCompleted() == newItem.isCompleted()
+                    && oldItem.getTitle().equals(newItem.getTitle())
+                    && oldItem.getDue() == newItem.getDue();
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Todo oldItem, @NonNull Todo newItem) {
+            return oldItem.getTitle().equals(newItem.getTitle()) && oldItem.getDue() == newItem.getDue()
+                    ? PAYLOAD_COMPLETED : null;
+        }
+    };
+
+    // Loads rows a window at a time and diffs updates within that window.
+    private final TodoPager pager = new TodoPager(this, DIFF_CALLBACK);
     private OnTodoClickListener listener;
+    private final HashSet<TodoId> selection = new HashSet<>();
+    private ItemTouchHelper touchHelper;
+    // Off for views sorted by something other than the list's order
+    private boolean dragEnabled = true;
 
     public interface OnTodoClickListener {
-        void onToggleClick(String id);
-        void onEditClick(String id, String currentTitle);
-        void onDeleteClick(String id);
+        // completed is the state the checkbox was set to.
+        void onToggleClick(TodoId id, boolean completed);
+        void onEditClick(TodoId id, String currentTitle, long due);
+        void onDeleteClick(TodoId id);
+        void onSelectionChanged(int count);
+        // aboveId is the todo the moved one was dropped below, or null for the top.
+        void onMoveTodo(TodoId id, TodoId aboveId);
     }
 
     public void setOnTodoClickListener(OnTodoClickListener listener) {
         this.listener = listener;
     }
 
-    @SuppressLint("NotifyDataSetChanged")
-    public void setTodos(ArrayList<Todo> todos) {
-        this.todos = todos;
-        this.notifyDataSetChanged();
+    // The source must not change after it is submitted; TodoCollection and
+    // TodoSnapshot never do. Runs shown, if given, once the rows are in the adapter.
+    public void setTodos(TodoPagingSource todos, Runnable shown) {
+        pager.submit(todos, shown);
     }
 
-    @NonNull
-    @Override
-    public TodoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_todo, parent, false);
-        return new TodoViewHolder(view);
+    public Set<TodoId> getSelection() {
+        return Collections.unmodifiableSet(selection);
     }
 
-    @Override
-    public void onBindViewHolder(@NonNull TodoViewHolder holder, int position) {
-        Todo todo = todos.get(position);
-        holder.tvTitle.setText(todo.getTitle());
-        holder.cbCompleted.setOnCheckedChangeListener(null);
-        holder.cbCompleted.setChecked(todo.isCompleted());
+    public void clearSelection() {
+        if (selection.isEmpty()) return;
+        selection.clear();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+        if (listener != null) {
+            listener.onSelectionChanged(0);
+        }
+    }
 
-        // Apply strikethrough for completed items
-        if (todo.isCompleted()) {
-            holder.tvTitle.setPaintFlags(holder.tvTitle.getPaintFlags() | android.graphics.Paint.STRIKE_THRU_TEXT_FLAG);
-            holder.tvTitle.setTextColor(0xFF777777);
-        } else {
-            holder.tvTitle.setPaintFlags(holder.tvTitle.getPaintFlags() & (~android.graphics.Paint.STRIKE_THRU_TEXT_FLAG));
-            holder.tvTitle.setTextColor(0xFF4d4d4d);
+    private void toggleSelection(TodoId id, int position) {
+        if (!selection.remove(id)) {
+            selection.add(id);
+        }
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position, PAYLOAD_SELECTION);
+        }
+        if (listener != null) {
+            listener.onSelectionChanged(selection.size());
         }
+    }
+
+    public void setDragEnabled(boolean dragEnabled) {
+        this.dragEnabled = dragEnabled;
+    }
+
+    // Rows are dragged by their handle. While dragging only the resident rows move;
+    // the todo gets its new place in the list when it is dropped.
+    public void enableDrag(RecyclerView recyclerView) {
+        touchHelper = new ItemTouchHelper(new ItemTouchHelper.Callback() {
+            private int dragFrom = RecyclerView.NO_POSITION;
+
+            @Override
+            public int getMovementFlags(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+                if (!dragEnabled || !selection.isEmpty() || todoAt((TodoViewHolder) viewHolder) == null) return 0;
+                return makeMovementFlags(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0);
+            }
+
+            @Override
+            public boolean onMove(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder,
+                    @NonNull RecyclerView.ViewHolder target) {
+                int from = viewHolder.getBindingAdapterPosition();
+                int to = target.getBindingAdapterPosition();
+                if (from == RecyclerView.NO_POSITION || to == RecyclerView.NO_POSITION) return false;
+                if (dragFrom == RecyclerView.NO_POSITION) dragFrom = from;
+                return pager.move(from, to);
+            }
+
+            @Override
+            public void clearView(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+                super.clearView(recyclerView, viewHolder);
+                int from = dragFrom;
+                int to = viewHolder.getBindingAdapterPosition();
+                dragFrom = RecyclerView.NO_POSITION;
+                if (from == RecyclerView.NO_POSITION || to == RecyclerView.NO_POSITION || from == to) return;
+                Todo todo = pager.get(to);
+                Todo above = to > 0 ? pager.get(to - 1) : null;
+                if (todo == null || (to > 0 && above == null)) {
+                    // Dropped next to a row that is not loaded; put it back.
+                    pager.move(to, from);
+                    return;
+                }
+                if (listener != null) {
+                    listener.onMoveTodo(todo.getId(), above != null ? above.getId() : null);
+                }
+            }
+
+            @Override
+            public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {}
 
-        holder.cbCompleted.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (listener != null) {
-                listener.onToggleClick(todo.getId());
+            @Override
+            public boolean isLongPressDragEnabled() {
+                // A long press starts multi-select instead.
+                return false;
             }
         });
+        touchHelper.attachToRecyclerView(recyclerView);
+    }
+
+    public void onVisibleRangeChanged(int first, int last, boolean forward) {
+        pager.onVisibleRangeChanged(first, last, forward);
+    }
+
+    // Inflates rows into the RecyclerView's pool while the main thread is idle, one
+    // per pass, so the first scroll binds recycled rows instead of inflating them.
+    public void preinflate(RecyclerView recyclerView, int count) {
+        RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+        pool.setMaxRecycledViews(VIEW_TYPE_TODO, count);
+        Looper.myQueue().addIdleHandler(() -> {
+            if (pool.getRecycledViewCount(VIEW_TYPE_TODO) >= count) return false;
+            pool.putRecycledView(createViewHolder(recyclerView, VIEW_TYPE_TODO));
+            return true;
+        });
+    }
+
+    @NonNull
+    @Override
+    public TodoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_todo, parent, false);
+        TodoViewHolder holder = new TodoViewHolder(view);
+
+        // Listeners are created once per row and look up the todo bound to it, so
+        // binding allocates nothing.
+        holder.checkedListener = (buttonView, isChecked) -> {
+            Todo todo = todoAt(holder);
+            if (todo != null && listener != null) {
+                listener.onToggleClick(todo.getId(), isChecked);
+            }
+        };
+        holder.cbCompleted.setOnCheckedChangeListener(holder.checkedListener);
 
         holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onEditClick(todo.getId(), todo.getTitle());
+            Todo todo = todoAt(holder);
+            if (todo == null) return;
+            if (!selection.isEmpty()) {
+                toggleSelection(todo.getId(), holder.getBindingAdapterPosition());
+            } else if (listener != null) {
+                listener.onEditClick(todo.getId(), todo.getTitle(), todo.getDue());
             }
         });
 
+        // A long press starts multi-select
+        holder.itemView.setOnLongClickListener(v -> {
+            Todo todo = todoAt(holder);
+            if (todo == null) return false;
+            toggleSelection(todo.getId(), holder.getBindingAdapterPosition());
+            return true;
+        });
+
         holder.btnDelete.setOnClickListener(v -> {
-            if (listener != null) {
+            Todo todo = todoAt(holder);
+            if (todo != null && listener != null) {
                 listener.onDeleteClick(todo.getId());
             }
         });
+
+        holder.ivDragHandle.setOnTouchListener((v, event) -> {
+            if (event.getActionMasked() != MotionEvent.ACTION_DOWN || touchHelper == null) return false;
+            touchHelper.startDrag(holder);
+            return true;
+        });
+        return holder;
+    }
+
+    // The todo shown in the row, or null if the row is a placeholder or being removed.
+    private Todo todoAt(TodoViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        if (position == RecyclerView.NO_POSITION || position >= pager.size()) return null;
+        return pager.get(position);
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return VIEW_TYPE_TODO;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull TodoViewHolder holder, int position, @NonNull List<Object> payloads) {
+        Todo todo = pager.get(position);
+        if (payloads.isEmpty() || todo == null) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < payloads.size(); i++) {
+            Object payload = payloads.get(i);
+            if (payload == PAYLOAD_COMPLETED) {
+                bindCompleted(holder, todo);
+            } else if (payload == PAYLOAD_SELECTION) {
+                bindSelection(holder, todo);
+            }
+        }
+        TodoMetrics.BIND_PAYLOAD.stop(start);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull TodoViewHolder holder, int position) {
+        long start = System.nanoTime();
+        bind(holder, position);
+        TodoMetrics.BIND.stop(start);
+    }
+
+    private void bind(TodoViewHolder holder, int position) {
+        Todo todo = pager.get(position);
+        if (todo == null) {
+            bindPlaceholder(holder);
+            return;
+        }
+        holder.tvTitle.setText(todo.getTitle());
+        bindReadOnly(holder, false);
+        bindCompleted(holder, todo);
+        bindSelection(holder, todo);
+    }
+
+    // A row whose page is still loading; it is rebound once the page arrives. Its
+    // listeners find no todo and do nothing meanwhile.
+    private void bindPlaceholder(TodoViewHolder holder) {
+        holder.tvTitle.setText(null);
+        holder.tvDue.setVisibility(View.GONE);
+        bindReadOnly(holder, true);
+        setChecked(holder, false);
+        holder.itemView.setBackgroundColor(0xFFFFFFFF);
+    }
+
+    private void bindReadOnly(TodoViewHolder holder, boolean readOnly) {
+        holder.cbCompleted.setEnabled(!readOnly);
+        holder.btnDelete.setEnabled(!readOnly);
+    }
+
+    private void bindSelection(TodoViewHolder holder, Todo todo) {
+        holder.itemView.setBackgroundColor(selection.contains(todo.getId()) ? 0xFFF5E1E2 : 0xFFFFFFFF);
+    }
+
+    private void bindCompleted(TodoViewHolder holder, Todo todo) {
+        setChecked(holder, todo.isCompleted());
+
+        // Apply strikethrough for completed items
+        if (todo.isCompleted()) {
+            holder.tvTitle.setPaintFlags(holder.struckPaintFlags);
+            holder.tvTitle.setTextColor(COMPLETED_TEXT_COLOR);
+        } else {
+            holder.tvTitle.setPaintFlags(holder.plainPaintFlags);
+            holder.tvTitle.setTextColor(ACTIVE_TEXT_COLOR);
+        }
+        bindDue(holder, todo);
+    }
+
+    // Shown in red once it has passed, unless the todo is done. The text is only
+    // formatted when the row shows another due time than before.
+    private void bindDue(TodoViewHolder holder, Todo todo) {
+        if (!todo.hasDue()) {
+            holder.tvDue.setVisibility(View.GONE);
+            return;
+        }
+        holder.tvDue.setVisibility(View.VISIBLE);
+        if (holder.boundDue != todo.getDue()) {
+            Context context = holder.itemView.getContext();
+            holder.tvDue.setText(context.getString(R.string.due,
+                    DateUtils.formatDateTime(context, todo.getDue(), DUE_FORMAT)));
+            holder.boundDue = todo.getDue();
+        }
+        boolean overdue = !todo.isCompleted() && todo.getDue() < System.currentTimeMillis();
+        holder.tvDue.setTextColor(overdue ? OVERDUE_TEXT_COLOR : COMPLETED_TEXT_COLOR);
+    }
+
+    // Updates the checkbox without reporting it as a tap.
+    private void setChecked(TodoViewHolder holder, boolean checked) {
+        if (holder.cbCompleted.isChecked() == checked) return;
+        holder.cbCompleted.setOnCheckedChangeListener(null);
+        holder.cbCompleted.setChecked(checked);
+        holder.cbCompleted.setOnCheckedChangeListener(holder.checkedListener);
     }
 
     @Override
     public int getItemCount() {
-        return todos.size();
+        return pager.size();
     }
 
     static class TodoViewHolder extends RecyclerView.ViewHolder {
         CheckBox cbCompleted;
         TextView tvTitle;
+        TextView tvDue;
         ImageButton btnDelete;
+        ImageView ivDragHandle;
+        CompoundButton.OnCheckedChangeListener checkedListener;
+        // The due time tvDue holds the text of, or 0 for none
+        long boundDue;
+        final int plainPaintFlags;
+        final int struckPaintFlags;
 
         public TodoViewHolder(@NonNull View itemView) {
             super(itemView);
             cbCompleted = itemView.findViewById(R.id.cbCompleted);
             tvTitle = itemView.findViewById(R.id.tvTitle);
+            tvDue = itemView.findViewById(R.id.tvDue);
             btnDelete = itemView.findViewById(R.id.btnDelete);
+            ivDragHandle = itemView.findViewById(R.id.ivDragHandle);
+            plainPaintFlags = tvTitle.getPaintFlags() & ~Paint.STRIKE_THRU_TEXT_FLAG;
+            struckPaintFlags = plainPaintFlags | Paint.STRIKE_THRU_TEXT_FLAG;
         }
     }
 }
@@ -0,0 +1,146 @@
+package app.android.todomvc;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// A checksummed copy of every list, kept next to the database.
+//
+// If the database is lost or found corrupt it is recreated empty, and the lists
+// are restored from here. Each list is written as its name followed by a
+// TodoCodec snapshot, whose blocks are checksummed. A new backup is written to a
+// temporary file, synced, and only then renamed over the old one, which is kept
+// as todos.backup.prev. The directory is synced after the renames, so they are on
+// disk too; a crash at any point leaves at least one complete backup behind. A backup with a damaged block is passed over for the previous one, and
+// only if both are damaged are the blocks that check out salvaged.
+public class TodoBackup {
+
+    private static final String BACKUP_FILE = "todos.backup";
+    private static final String PREVIOUS_FILE = "todos.backup.prev";
+    private static final String TMP_FILE = "todos.backup.tmp";
+    private static final int BACKUP_MAGIC = 0x54444c53; // "TDLS"
+    private static final int BACKUP_VERSION = 1;
+
+    // Makes renames in a directory durable. Tests swap it out, as android.system.Os
+    // is not there off the device.
+    interface DirectorySync {
+        void sync(File dir) throws IOException;
+    }
+
+    private final File dir;
+    private final DirectorySync directorySync;
+    private final File backupFile;
+    private final File previousFile;
+    private final File tmpFile;
+
+    public TodoBackup(File dir) {
+        this(dir, TodoBackup::syncDirectory);
+    }
+
+    TodoBackup(File dir, DirectorySync directorySync) {
+        this.dir = dir;
+        this.directorySync = directorySync;
+        backupFile = new File(dir, BACKUP_FILE);
+        previousFile = new File(dir, PREVIOUS_FILE);
+        tmpFile = new File(dir, TMP_FILE);
+    }
+
+    public boolean exists() {
+        return backupFile.exists() || previousFile.exists();
+    }
+
+    // The latest backup that reads back whole, or failing that the latest that can
+    // be read at all, less its damaged blocks.
+    public ArrayList<TodoPartition> read() throws IOException {
+        IOException failure = null;
+        for (boolean strict : new boolean[] {true, false}) {
+            for (File file : new File[] {backupFile, previousFile}) {
+                if (!file.exists()) continue;
+                try {
+                    return read(file, strict);
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+        }
+        throw failure != null ? failure : new FileNotFoundException(backupFile.getPath());
+    }
+
+    public void write(List<TodoPartition> partitions) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(tmpFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(BACKUP_MAGIC);
+            out.writeInt(BACKUP_VERSION);
+            out.writeInt(partitions.size());
+            for (TodoPartition partition : partitions) {
+                out.writeLong(partition.getListId());
+                out.writeUTF(partition.getName());
+                TodoCodec.writeSnapshot(out, partition.getTodos());
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        // The old backup is kept, so one that later turns out damaged has a fallback.
+        if (backupFile.exists()) {
+            previousFile.delete();
+            if (!backupFile.renameTo(previousFile)) {
+                throw new IOException("Failed to keep the previous backup");
+            }
+        }
+        if (!tmpFile.renameTo(backupFile)) {
+            throw new IOException("Failed to replace the backup");
+        }
+        directorySync.sync(dir);
+    }
+
+    private static void syncDirectory(File dir) throws IOException {
+        try {
+            FileDescriptor fd = Os.open(dir.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("Failed to sync " + dir, e);
+        }
+    }
+
+    private static ArrayList<TodoPartition> read(File file, boolean strict) throws IOException {
+        try (BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(file))) {
+            DataInputStream in = new DataInputStream(buffered);
+            ArrayList<TodoPartition> partitions = new ArrayList<>();
+            buffered.mark(4);
+            if (in.readInt() != BACKUP_MAGIC) {
+                // Written before there were several lists: a single snapshot
+                buffered.reset();
+                partitions.add(new TodoPartition(TodoList.DEFAULT_ID, TodoList.DEFAULT_NAME,
+                        TodoCodec.readSnapshot(in, strict)));
+                return partitions;
+            }
+            int version = in.readInt();
+            if (version != BACKUP_VERSION) {
+                throw new IOException("Unsupported backup version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long listId = in.readLong();
+                String name = in.readUTF();
+                partitions.add(new TodoPartition(listId, name, TodoCodec.readSnapshot(in, strict)));
+            }
+            return partitions;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package app.android.todomvc;
+
+// The state of one todo or list as sync exchanges it: a last-writer-wins register
+// per field.
+//
+// Each field carries the stamp of the write that set it, and merging two versions
+// keeps the newer value of each field, so a rename on one device and a toggle on
+// another both survive. A delete is one more stamp: the todo exists while any of
+// its fields was written after it, so editing a todo that another device deleted
+// meanwhile brings it back. Stamps are hybrid clock readings, see nextStamp(), and
+// equal stamps are settled by the values, so every replica ends up the same
+// whichever order it merges in. A list is a change without an id whose title is
+// its name.
+public final class TodoChange {
+
+    // Stamps keep this many bits for writes within the same millisecond.
+    private static final int STAMP_COUNTER_BITS = 16;
+
+    private final TodoId id;
+    private final long listId;
+    private final String title;
+    private final boolean completed;
+    private final long order;
+    private final long created;
+    private final long due;
+    private final long titleStamp;
+    private final long completedStamp;
+    private final long orderStamp;
+    private final long dueStamp;
+    private final long deletedStamp;
+
+    public TodoChange(TodoId id, long listId, String title, boolean completed, long order, long created, long due,
+            long titleStamp, long completedStamp, long orderStamp, long dueStamp, long deletedStamp) {
+        this.id = id;
+        this.listId = listId;
+        this.title = title;
+        this.completed = completed;
+        this.order = order;
+        this.created = created;
+        this.due = due;
+        this.titleStamp = titleStamp;
+        this.completedStamp = completedStamp;
+        this.orderStamp = orderStamp;
+        this.dueStamp = dueStamp;
+        this.deletedStamp = deletedStamp;
+    }
+
+    // A todo written as a whole at the given stamp, e.g. by an add.
+    public static TodoChange of(long listId, Todo todo, long stamp) {
+        return new TodoChange(todo.getId(), listId, todo.getTitle(), todo.isCompleted(), todo.getOrder(),
+                todo.getCreated(), todo.getDue(), stamp, stamp, stamp, stamp, 0);
+    }
+
+    public static TodoChange deleted(TodoId id, long listId, long stamp) {
+        return new TodoChange(id, listId, "", false, 0, 0, 0, 0, 0, 0, 0, stamp);
+    }
+
+    public static TodoChange list(long listId, String name, long stamp) {
+        return new TodoChange(null, listId, name, false, 0, 0, 0, stamp, 0, 0, 0, 0);
+    }
+
+    public static TodoChange deletedList(long listId, long stamp) {
+        return new TodoChange(null, listId, "", false, 0, 0, 0, 0, 0, 0, 0, stamp);
+    }
+
+    // The next stamp after last: the time in millis in the high bits, and a counter
+    // in the low ones so stamps keep rising within a millisecond or while the clock
+    // is behind one seen from another device.
+    public static long nextStamp(long last, long now) {
+        return Math.max(now << STAMP_COUNTER_BITS, last + 1);
+    }
+
+    // The newer of the two for each field. Both must be of the same todo or list.
+    public static TodoChange merge(TodoChange a, TodoChange b) {
+        boolean titleA = wins(a.titleStamp, b.titleStamp, a.title.compareTo(b.title));
+        boolean completedA = wins(a.completedStamp, b.completedStamp, Boolean.compare(a.completed, b.completed));
+        boolean orderA = wins(a.orderStamp, b.orderStamp, Long.compare(a.order, b.order));
+        boolean dueA = wins(a.dueStamp, b.dueStamp, Long.compare(a.due, b.due));
+        return new TodoChange(a.id, a.listId,
+                titleA ? a.title : b.title,
+                completedA ? a.completed : b.completed,
+                orderA ? a.order : b.order,
+                Math.max(a.created, b.created),
+                dueA ? a.due : b.due,
+                Math.max(a.titleStamp, b.titleStamp),
+                Math.max(a.completedStamp, b.completedStamp),
+                Math.max(a.orderStamp, b.orderStamp),
+                Math.max(a.dueStamp, b.dueStamp),
+                Math.max(a.deletedStamp, b.deletedStamp));
+    }
+
+    private static boolean wins(long stamp, long otherStamp, int valueOrder) {
+        return stamp != otherStamp ? stamp > otherStamp : valueOrder >= 0;
+    }
+
+    public boolean isList() { return id == null; }
+
+    public boolean isDeleted() {
+        return deletedStamp > 0 && deletedStamp >= maxStamp();
+    }
+
+    // The newest write to any field, including the delete.
+    public long maxStamp() {
+        return Math.max(Math.max(Math.max(titleStamp, completedStamp), Math.max(orderStamp, dueStamp)), deletedStamp);
+    }
+
+    public Todo toTodo() {
+        return new Todo(id, title, completed, order, created, due);
+    }
+
+    // Getters
+    public TodoId getId() { return id; }
+    public long getListId() { return listId; }
+    public String getTitle() { return title; }
+    public boolean isCompleted() { return completed; }
+    public long getOrder() { return order; }
+    public long getCreated() { return created; }
+    public long getDue() { return due; }
+    public long getTitleStamp() { return titleStamp; }
+    public long getCompletedStamp() { return completedStamp; }
+    public long getOrderStamp() { return orderStamp; }
+    public long getDueStamp() { return dueStamp; }
+    public long getDeletedStamp() { return deletedStamp; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TodoChange)) return false;
+        TodoChange other = (TodoChange) o;
+        return (id == null ? other.id == null : id.equals(other.id)) && listId == other.listId
+                && title.equals(other.title) && completed == other.completed && order == other.order
+                && created == other.created && due == other.due && titleStamp == other.titleStamp
+                && completedStamp == other.completedStamp && orderStamp == other.orderStamp
+                && dueStamp == other.dueStamp && deletedStamp == other.deletedStamp;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : Long.hashCode(listId);
+    }
+}
@@ -0,0 +1,605 @@
+package app.android.todomvc;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Hand-written, reflection-free encodings for todos.
+//
+// The JSON form matches the todos_list string older versions kept in
+// SharedPreferences and is read and written token by token, never as a whole
+// string or object tree. The binary form is what older versions used for their
+// snapshot and operation log, and what TodoBackup writes: ids as two longs,
+// titles as modified UTF-8, at most 64KB, which Todo.MAX_TITLE_LENGTH keeps them
+// under, one flag byte, and in snapshots since version 3 the
+// created and due times as longs. JSON lines and CSV are the export formats, read
+// and written one todo at a time. Times are epoch millis everywhere, and left out
+// or empty when unset. Sync batches are binary too, deflated as a whole.
+public final class TodoCodec {
+
+    private static final int SNAPSHOT_MAGIC = 0x544f444f; // "TODO"
+    // Version 1 is a plain run of todos. Version 2 splits them into blocks of up to
+    // BLOCK_TODOS todos or about BLOCK_BYTES, each with a CRC32, so damage costs the
+    // todos in one block rather than the whole snapshot. Version 3 adds the times.
+    private static final int SNAPSHOT_VERSION_PLAIN = 1;
+    private static final int SNAPSHOT_VERSION_BLOCKS = 2;
+    private static final int SNAPSHOT_VERSION = 3;
+    private static final int BLOCK_TODOS = 256;
+    private static final int BLOCK_BYTES = 64 * 1024;
+    // A block is closed once it reaches BLOCK_BYTES and a title is at most 64KB,
+    // so a block that claims much more than that is damaged.
+    private static final int MAX_BLOCK_BYTES = 4 * BLOCK_BYTES;
+
+    private static final int BATCH_MAGIC = 0x53594e43; // "SYNC"
+    private static final int BATCH_VERSION = 1;
+    // Flags of a change in a batch. A deleted todo or list is sent as just its
+    // delete stamp.
+    private static final int CHANGE_LIST = 1;
+    private static final int CHANGE_TOMBSTONE = 2;
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_TITLE = "title";
+    private static final String FIELD_COMPLETED = "completed";
+    private static final String FIELD_CREATED = "created";
+    private static final String FIELD_DUE = "due";
+
+    // Receives todos one at a time from the streaming readers.
+    public interface TodoSink {
+        void accept(Todo todo) throws IOException;
+    }
+
+    private TodoCodec() {}
+
+    // JSON
+
+    // Records that are not a todo, e.g. of the wrong shape or with a field of the
+    // wrong type, are skipped and counted in TodoMetrics.RECORDS_SKIPPED. Input
+    // that is not a JSON array at all is reported as an IOException.
+    public static ArrayList<Todo> readJson(Reader reader) throws IOException {
+        ArrayList<Todo> todos = new ArrayList<>();
+        JsonReader json = new JsonReader(reader);
+        try {
+            if (json.peek() == JsonToken.NULL) {
+                return todos;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                Todo todo = readJsonTodo(json);
+                if (todo != null) todos.add(todo);
+            }
+            json.endArray();
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed todo list", e);
+        }
+        return todos;
+    }
+
+    public static void writeJson(Writer writer, Iterable<Todo> todos) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+        for (Todo todo : todos) {
+            writeJsonTodo(json, todo);
+        }
+        json.endArray();
+        json.flush();
+    }
+
+    // Reads one value, and returns null, having counted it as skipped, if it is not
+    // a todo. Each field is checked for its type before it is read, so a bad one
+    // never leaves the reader partway into a value. Long titles are cut to
+    // Todo.MAX_TITLE_LENGTH.
+    public static Todo readJsonTodo(JsonReader json) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            json.skipValue();
+            TodoMetrics.RECORDS_SKIPPED.increment();
+            return null;
+        }
+        TodoId id = null;
+        String title = null;
+        boolean completed = false;
+        long created = 0;
+        long due = 0;
+        boolean valid = true;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            JsonToken token = json.peek();
+            if (token == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            try {
+                switch (name) {
+                    case FIELD_ID:
+                        if (token != JsonToken.STRING) break;
+                        id = TodoId.fromString(json.nextString());
+                        continue;
+                    case FIELD_TITLE:
+                        if (token != JsonToken.STRING && token != JsonToken.NUMBER) break;
+                        title = json.nextString();
+                        continue;
+                    case FIELD_COMPLETED:
+                        if (token != JsonToken.BOOLEAN) break;
+                        completed = json.nextBoolean();
+                        continue;
+                    case FIELD_CREATED:
+                        if (token != JsonToken.NUMBER) break;
+                        created = Long.parseLong(json.nextString());
+                        continue;
+                    case FIELD_DUE:
+                        if (token != JsonToken.NUMBER) break;
+                        due = Long.parseLong(json.nextString());
+                        continue;
+                    default:
+                        json.skipValue();
+                        continue;
+                }
+            } catch (IllegalArgumentException e) {
+                // Read, but not an id or a whole number
+                valid = false;
+                continue;
+            }
+            // Of the wrong type; not read yet
+            json.skipValue();
+            valid = false;
+        }
+        json.endObject();
+        if (!valid) {
+            TodoMetrics.RECORDS_SKIPPED.increment();
+            return null;
+        }
+        if (id == null) id = TodoId.random();
+        if (title == null) title = "";
+        return new Todo(id, Todo.capTitle(title), completed, 0, created, due);
+    }
+
+    public static void writeJsonTodo(JsonWriter json, Todo todo) throws IOException {
+        json.beginObject();
+        json.name(FIELD_ID).value(todo.getId().toString());
+        json.name(FIELD_TITLE).value(todo.getTitle());
+        json.name(FIELD_COMPLETED).value(todo.isCompleted());
+        if (todo.getCreated() != 0) json.name(FIELD_CREATED).value(todo.getCreated());
+        if (todo.hasDue()) json.name(FIELD_DUE).value(todo.getDue());
+        json.endObject();
+    }
+
+    // JSON lines: one todo object per line, in the same shape as above.
+
+    // A writer for writeJsonLine(). It writes straight through, so lines can be
+    // separated on the underlying writer.
+    public static JsonWriter newJsonLinesWriter(Writer writer) {
+        JsonWriter json = new JsonWriter(writer);
+        json.setLenient(true);
+        return json;
+    }
+
+    public static void writeJsonLine(JsonWriter json, Writer writer, Todo todo) throws IOException {
+        writeJsonTodo(json, todo);
+        writer.write('\n');
+    }
+
+    // Calls the sink for each todo as it is read, so memory stays flat however
+    // long the input is.
+    public static void readJsonLines(Reader reader, TodoSink sink) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.setLenient(true);
+        try {
+            while (json.peek() != JsonToken.END_DOCUMENT) {
+                Todo todo = readJsonTodo(json);
+                if (todo != null) sink.accept(todo);
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed todo", e);
+        }
+    }
+
+    // CSV, RFC 4180 style: a header row, fields quoted when they hold a comma,
+    // quote or line break, and quotes doubled inside quotes.
+
+    public static final String CSV_HEADER = FIELD_ID + "," + FIELD_TITLE + "," + FIELD_COMPLETED
+            + "," + FIELD_CREATED + "," + FIELD_DUE;
+
+    public static void writeCsvHeader(Writer writer) throws IOException {
+        writer.write(CSV_HEADER);
+        writer.write("\r\n");
+    }
+
+    public static void writeCsvTodo(Writer writer, Todo todo) throws IOException {
+        writer.write(todo.getId().toString());
+        writer.write(',');
+        writeCsvField(writer, todo.getTitle());
+        writer.write(',');
+        writer.write(todo.isCompleted() ? "true" : "false");
+        writer.write(',');
+        if (todo.getCreated() != 0) writer.write(Long.toString(todo.getCreated()));
+        writer.write(',');
+        if (todo.hasDue()) writer.write(Long.toString(todo.getDue()));
+        writer.write("\r\n");
+    }
+
+    // Calls the sink for each row as it is read. Columns are found by the names in
+    // the header row; without one, the columns are title and completed. Only the
+    // title is required, and is cut to Todo.MAX_TITLE_LENGTH. Ids are parsed if
+    // present, otherwise made up. A byte order mark before the first row is skipped.
+    public static void readCsv(Reader reader, TodoSink sink) throws IOException {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int idColumn = -1;
+        int titleColumn = 0;
+        int completedColumn = 1;
+        int createdColumn = -1;
+        int dueColumn = -1;
+        boolean first = true;
+        while (readCsvRecord(reader, fields, field)) {
+            if (fields.size() == 1 && fields.get(0).isEmpty()) continue;
+            if (first) {
+                first = false;
+                if (fields.get(0).startsWith("\uFEFF")) fields.set(0, fields.get(0).substring(1));
+                int title = indexOfIgnoreCase(fields, FIELD_TITLE);
+                if (title >= 0) {
+                    titleColumn = title;
+                    idColumn = indexOfIgnoreCase(fields, FIELD_ID);
+                    completedColumn = indexOfIgnoreCase(fields, FIELD_COMPLETED);
+                    createdColumn = indexOfIgnoreCase(fields, FIELD_CREATED);
+                    dueColumn = indexOfIgnoreCase(fields, FIELD_DUE);
+                    continue;
+                }
+            }
+            TodoId id = null;
+            if (idColumn >= 0 && idColumn < fields.size() && !fields.get(idColumn).isEmpty()) {
+                try {
+                    id = TodoId.fromString(fields.get(idColumn));
+                } catch (IllegalArgumentException e) {
+                    // Not one of ours; a new id is made up below
+                }
+            }
+            String title = titleColumn < fields.size() ? Todo.capTitle(fields.get(titleColumn)) : "";
+            boolean completed = completedColumn >= 0 && completedColumn < fields.size()
+                    && isTrue(fields.get(completedColumn));
+            sink.accept(new Todo(id != null ? id : TodoId.random(), title, completed, 0,
+                    parseTime(fields, createdColumn), parseTime(fields, dueColumn)));
+        }
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') writer.write('"');
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    // Reads the fields of one record, which may span lines inside quotes, reusing
+    // the given list and builder. Returns false at the end of the input.
+    private static boolean readCsvRecord(Reader reader, List<String> fields, StringBuilder field) throws IOException {
+        fields.clear();
+        field.setLength(0);
+        int c = reader.read();
+        if (c == -1) return false;
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) throw new IOException("Unterminated quoted field");
+                if (c == '"') {
+                    c = reader.read();
+                    if (c != '"') {
+                        // Closing quote; c is whatever follows it
+                        quoted = false;
+                        continue;
+                    }
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                fields.add(field.toString());
+                return true;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+
+    private static int indexOfIgnoreCase(List<String> fields, String name) {
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).trim().equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    // 0 if the column is missing, empty or not a number.
+    private static long parseTime(List<String> fields, int column) {
+        if (column < 0 || column >= fields.size()) return 0;
+        try {
+            return Math.max(0, Long.parseLong(fields.get(column).trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isTrue(String value) {
+        String v = value.trim();
+        return v.equalsIgnoreCase("true") || v.equals("1") || v.equalsIgnoreCase("yes") || v.equalsIgnoreCase("x");
+    }
+
+    // Binary
+
+    public static ArrayList<Todo> readSnapshot(DataInput in) throws IOException {
+        return readSnapshot(in, false);
+    }
+
+    // Strictly, any damaged block fails the whole snapshot instead of being skipped,
+    // e.g. so a caller can turn to an older copy that is intact.
+    public static ArrayList<Todo> readSnapshot(DataInput in, boolean strict) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a todo snapshot");
+        }
+        int version = in.readInt();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Damaged snapshot header");
+        }
+        if (version == SNAPSHOT_VERSION_PLAIN) {
+            // Not sized by count, which is not checked against the data
+            ArrayList<Todo> todos = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                todos.add(readTodo(in));
+            }
+            return todos;
+        }
+        if (version != SNAPSHOT_VERSION_BLOCKS && version != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        boolean dated = version == SNAPSHOT_VERSION;
+        int blocks = in.readInt();
+        if (blocks < 0 || blocks > count || (count > 0 && blocks == 0)) {
+            throw new IOException("Damaged snapshot header");
+        }
+
+        // Keeps every block that checks out. Past a damaged length nothing more can
+        // be located, so reading stops there.
+        ArrayList<Todo> todos = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        try {
+            for (int i = 0; i < blocks; i++) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_BLOCK_BYTES) {
+                    if (strict) throw new IOException("Damaged snapshot block length");
+                    break;
+                }
+                byte[] block = new byte[length];
+                in.readFully(block);
+                int checksum = in.readInt();
+                crc.reset();
+                crc.update(block, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    if (strict) throw new IOException("Snapshot block checksum mismatch");
+                    continue;
+                }
+
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(block));
+                int size = data.readInt();
+                for (int j = 0; j < size; j++) {
+                    todos.add(dated ? readDatedTodo(data) : readTodo(data));
+                }
+            }
+        } catch (EOFException e) {
+            // Cut short; keep what was read
+            if (strict) throw e;
+        }
+        if (strict && todos.size() != count) {
+            throw new IOException("Snapshot holds " + todos.size() + " of " + count + " todos");
+        }
+        return todos;
+    }
+
+    public static void writeSnapshot(DataOutput out, List<Todo> todos) throws IOException {
+        ArrayList<byte[]> blocks = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BLOCK_BYTES);
+        DataOutputStream block = new DataOutputStream(bytes);
+        int i = 0;
+        while (i < todos.size()) {
+            // Room for the todo count, filled in below
+            bytes.reset();
+            block.writeInt(0);
+            int start = i;
+            while (i < todos.size() && i - start < BLOCK_TODOS && bytes.size() < BLOCK_BYTES) {
+                writeDatedTodo(block, todos.get(i++));
+            }
+            block.flush();
+            byte[] data = bytes.toByteArray();
+            int size = i - start;
+            data[0] = (byte) (size >>> 24);
+            data[1] = (byte) (size >>> 16);
+            data[2] = (byte) (size >>> 8);
+            data[3] = (byte) size;
+            blocks.add(data);
+        }
+
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(todos.size());
+        out.writeInt(blocks.size());
+        CRC32 crc = new CRC32();
+        for (byte[] data : blocks) {
+            crc.reset();
+            crc.update(data, 0, data.length);
+            out.writeInt(data.length);
+            out.write(data);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+
+    public static Todo readTodo(DataInput in) throws IOException {
+        TodoId id = readId(in);
+        boolean completed = in.readBoolean();
+        return new Todo(id, in.readUTF(), completed);
+    }
+
+    public static void writeTodo(DataOutput out, Todo todo) throws IOException {
+        writeId(out, todo.getId());
+        out.writeBoolean(todo.isCompleted());
+        out.writeUTF(todo.getTitle());
+    }
+
+    private static Todo readDatedTodo(DataInput in) throws IOException {
+        Todo todo = readTodo(in);
+        long created = in.readLong();
+        long due = in.readLong();
+        return new Todo(todo.getId(), todo.getTitle(), todo.isCompleted(), 0, created, due);
+    }
+
+    private static void writeDatedTodo(DataOutput out, Todo todo) throws IOException {
+        writeTodo(out, todo);
+        out.writeLong(todo.getCreated());
+        out.writeLong(todo.getDue());
+    }
+
+    // A record of the operation log older versions wrote. Nothing writes the log
+    // any more, so its format is frozen.
+    public static TodoOp readOp(DataInput in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case TodoOp.ADD:
+                return TodoOp.add(TodoList.DEFAULT_ID, readTodo(in));
+            case TodoOp.TOGGLE:
+                return TodoOp.toggle(readId(in), in.readBoolean());
+            case TodoOp.RENAME:
+                return TodoOp.rename(readId(in), in.readUTF());
+            case TodoOp.DELETE:
+                return TodoOp.delete(readId(in));
+            case TodoOp.CLEAR_COMPLETED:
+                return TodoOp.clearCompleted(TodoList.DEFAULT_ID);
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    // Sync
+
+    public static byte[] encodeBatch(TodoSync.Batch batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(BATCH_MAGIC);
+            out.writeInt(BATCH_VERSION);
+            out.writeLong(batch.getSeq());
+            out.writeInt(batch.getChanges().size());
+            for (TodoChange change : batch.getChanges()) {
+                writeChange(out, change);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public static TodoSync.Batch decodeBatch(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            if (in.readInt() != BATCH_MAGIC) {
+                throw new IOException("Not a sync batch");
+            }
+            int version = in.readInt();
+            if (version != BATCH_VERSION) {
+                throw new IOException("Unsupported sync batch version " + version);
+            }
+            long seq = in.readLong();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Damaged sync batch");
+            }
+            // Not sized by count, which is not checked against the data
+            ArrayList<TodoChange> changes = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                changes.add(readChange(in));
+            }
+            return new TodoSync.Batch(seq, changes);
+        }
+    }
+
+    private static TodoChange readChange(DataInput in) throws IOException {
+        int flags = in.readByte();
+        boolean tombstone = (flags & CHANGE_TOMBSTONE) != 0;
+        if ((flags & CHANGE_LIST) != 0) {
+            long listId = in.readLong();
+            if (tombstone) return TodoChange.deletedList(listId, in.readLong());
+            String name = in.readUTF();
+            long stamp = in.readLong();
+            return new TodoChange(null, listId, name, false, 0, 0, 0, stamp, 0, 0, 0, in.readLong());
+        }
+        TodoId id = readId(in);
+        long listId = in.readLong();
+        if (tombstone) return TodoChange.deleted(id, listId, in.readLong());
+        boolean completed = in.readBoolean();
+        String title = in.readUTF();
+        long order = in.readLong();
+        long created = in.readLong();
+        long due = in.readLong();
+        return new TodoChange(id, listId, title, completed, order, created, due,
+                in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    private static void writeChange(DataOutput out, TodoChange change) throws IOException {
+        boolean tombstone = change.isDeleted();
+        out.writeByte((change.isList() ? CHANGE_LIST : 0) | (tombstone ? CHANGE_TOMBSTONE : 0));
+        if (change.isList()) {
+            out.writeLong(change.getListId());
+            if (!tombstone) {
+                out.writeUTF(change.getTitle());
+                out.writeLong(change.getTitleStamp());
+            }
+            out.writeLong(change.getDeletedStamp());
+            return;
+        }
+        writeId(out, change.getId());
+        out.writeLong(change.getListId());
+        if (!tombstone) {
+            out.writeBoolean(change.isCompleted());
+            out.writeUTF(change.getTitle());
+            out.writeLong(change.getOrder());
+            out.writeLong(change.getCreated());
+            out.writeLong(change.getDue());
+            out.writeLong(change.getTitleStamp());
+            out.writeLong(change.getCompletedStamp());
+            out.writeLong(change.getOrderStamp());
+            out.writeLong(change.getDueStamp());
+        }
+        out.writeLong(change.getDeletedStamp());
+    }
+
+    private static TodoId readId(DataInput in) throws IOException {
+        return new TodoId(in.readLong(), in.readLong());
+    }
+
+    private static void writeId(DataOutput out, TodoId id) throws IOException {
+        out.writeLong(id.getMostSigBits());
+        out.writeLong(id.getLeastSigBits());
+    }
+}
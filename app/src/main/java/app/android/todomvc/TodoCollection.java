@@ -0,0 +1,268 @@
+package app.android.todomvc;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// An immutable, ordered list of todos, newest first.
+//
+// Todos live in a persistent AVL tree sorted by Todo.getOrder(), with subtree sizes
+// so get(int) and indexOf() are O(log n). Two todos may briefly share an order,
+// e.g. while a move is undone one todo at a time; ties are broken by id. A
+// collection created with an id index also keeps a second tree sorted by TodoId
+// for lookups. with() and without() return a new version in O(log n) by copying
+// only the path to the changed node; every other subtree is shared, so old
+// versions stay valid and can be handed out freely.
+public final class TodoCollection extends AbstractList<Todo> implements TodoPagingSource {
+
+    // Display order: order descending, then id ascending. Lists handed to of() must
+    // already be in it.
+    static final Comparator<Todo> BY_ORDER = (a, b) -> {
+        int byOrder = Long.compare(b.getOrder(), a.getOrder());
+        return byOrder != 0 ? byOrder : a.getId().compareTo(b.getId());
+    };
+    private static final Comparator<Todo> BY_ID = (a, b) -> a.getId().compareTo(b.getId());
+
+    private static final TodoCollection EMPTY = new TodoCollection(null, null, false);
+    private static final TodoCollection EMPTY_INDEXED = new TodoCollection(null, null, true);
+
+    private static final class Node {
+        final Todo todo;
+        final Node left;
+        final Node right;
+        final int size;
+        final int height;
+
+        Node(Todo todo, Node left, Node right) {
+            this.todo = todo;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    private final Node byOrder;
+    private final Node byId;
+    private final boolean indexed;
+
+    private TodoCollection(Node byOrder, Node byId, boolean indexed) {
+        this.byOrder = byOrder;
+        this.byId = byId;
+        this.indexed = indexed;
+    }
+
+    public static TodoCollection empty(boolean indexById) {
+        return indexById ? EMPTY_INDEXED : EMPTY;
+    }
+
+    // Builds a balanced collection from todos that are already in display order.
+    public static TodoCollection of(List<Todo> todos, boolean indexById) {
+        if (todos.isEmpty()) return empty(indexById);
+        Node byId = null;
+        if (indexById) {
+            ArrayList<Todo> sorted = new ArrayList<>(todos);
+            sorted.sort(BY_ID);
+            byId = build(sorted, 0, sorted.size());
+        }
+        return new TodoCollection(build(todos, 0, todos.size()), byId, indexById);
+    }
+
+    @Override
+    public Todo get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node node = byOrder;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.todo;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size(byOrder);
+    }
+
+    // The position of the todo with this id and order, or -1 if it is not in here.
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Todo)) return -1;
+        Todo todo = (Todo) o;
+        Node node = byOrder;
+        int index = 0;
+        while (node != null) {
+            int c = BY_ORDER.compare(todo, node.todo);
+            if (c < 0) {
+                node = node.left;
+            } else if (c > 0) {
+                index += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return index + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public List<Todo> load(int start, int count) {
+        ArrayList<Todo> todos = new ArrayList<>(count);
+        for (int i = start; i < start + count; i++) {
+            todos.add(get(i));
+        }
+        return todos;
+    }
+
+    // Only available on collections created with an id index.
+    public Todo get(TodoId id) {
+        if (!indexed) throw new UnsupportedOperationException("Collection is not indexed by id");
+        Node node = byId;
+        while (node != null) {
+            int c = id.compareTo(node.todo.getId());
+            if (c < 0) {
+                node = node.left;
+            } else if (c > 0) {
+                node = node.right;
+            } else {
+                return node.todo;
+            }
+        }
+        return null;
+    }
+
+    // Adds a todo, or replaces the one with the same id and order.
+    public TodoCollection with(Todo todo) {
+        return new TodoCollection(
+                insert(byOrder, todo, BY_ORDER),
+                indexed ? insert(byId, todo, BY_ID) : null,
+                indexed);
+    }
+
+    public TodoCollection without(Todo todo) {
+        Node newByOrder = remove(byOrder, todo, BY_ORDER);
+        if (newByOrder == byOrder) return this;
+        return new TodoCollection(newByOrder, indexed ? remove(byId, todo, BY_ID) : null, indexed);
+    }
+
+    // In-order walk, O(n) for the whole list instead of n calls to get(int).
+    @Override
+    public Iterator<Todo> iterator() {
+        return new Iterator<Todo>() {
+            private final Node[] stack = new Node[height(byOrder)];
+            private int depth;
+
+            {
+                pushLeft(byOrder);
+            }
+
+            private void pushLeft(Node node) {
+                while (node != null) {
+                    stack[depth++] = node;
+                    node = node.left;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return depth > 0;
+            }
+
+            @Override
+            public Todo next() {
+                if (depth == 0) throw new NoSuchElementException();
+                Node node = stack[--depth];
+                pushLeft(node.right);
+                return node.todo;
+            }
+        };
+    }
+
+    // Of the order tree, for tests of its balance.
+    int height() {
+        return height(byOrder);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static Node build(List<Todo> todos, int from, int to) {
+        if (from >= to) return null;
+        int mid = (from + to) >>> 1;
+        return new Node(todos.get(mid), build(todos, from, mid), build(todos, mid + 1, to));
+    }
+
+    private static Node insert(Node node, Todo todo, Comparator<Todo> comparator) {
+        if (node == null) return new Node(todo, null, null);
+        int c = comparator.compare(todo, node.todo);
+        if (c < 0) return balance(node.todo, insert(node.left, todo, comparator), node.right);
+        if (c > 0) return balance(node.todo, node.left, insert(node.right, todo, comparator));
+        return new Node(todo, node.left, node.right);
+    }
+
+    private static Node remove(Node node, Todo todo, Comparator<Todo> comparator) {
+        if (node == null) return null;
+        int c = comparator.compare(todo, node.todo);
+        if (c < 0) {
+            Node left = remove(node.left, todo, comparator);
+            return left == node.left ? node : balance(node.todo, left, node.right);
+        }
+        if (c > 0) {
+            Node right = remove(node.right, todo, comparator);
+            return right == node.right ? node : balance(node.todo, node.left, right);
+        }
+        if (node.left == null) return node.right;
+        if (node.right == null) return node.left;
+        Node min = node.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.todo, node.left, removeMin(node.right));
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) return node.right;
+        return balance(node.todo, removeMin(node.left), node.right);
+    }
+
+    private static Node balance(Todo todo, Node left, Node right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left.todo, left.left, left.right);
+            }
+            return rotateRight(todo, left, right);
+        }
+        if (diff < -1) {
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right.todo, right.left, right.right);
+            }
+            return rotateLeft(todo, left, right);
+        }
+        return new Node(todo, left, right);
+    }
+
+    private static Node rotateRight(Todo todo, Node left, Node right) {
+        return new Node(left.todo, left.left, new Node(todo, left.right, right));
+    }
+
+    private static Node rotateLeft(Todo todo, Node left, Node right) {
+        return new Node(right.todo, new Node(todo, left, right.left), right.right);
+    }
+}
@@ -0,0 +1,879 @@
+package app.android.todomvc;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// SQLite storage for the todo lists.
+//
+// One row per todo, keyed by the two halves of its id, and one per list. Each list
+// is a partition of the todos table: position is the todo's order within its
+// list, top highest, spaced Todo.ORDER_GAP apart so that moving a todo rewrites
+// only its own row. Two indexes are in display order within a list, one of all
+// its todos and one split by completed state, so a page of the All, Active or
+// Completed view is a range of one of them read without a sort, and a count is a
+// range count that reads no todo rows. A partial index on the due time of active
+// todos serves the Overdue and Today views and finds the next reminder across all
+// lists, without reading any other row; two more, per list, serve a TodoQuery of
+// due or creation times in any status. Every TodoOp becomes a single-row
+// statement, except Clear Completed which is one indexed delete. Each row an op
+// changes is read first, so apply() can report what it did and how to undo it.
+//
+// For sync, each field of a todo carries the stamp of the write that set it, see
+// TodoChange, and every local write marks its rows with a new sequence number.
+// Deleted todos and lists leave a tombstone, kept until it has been sent, so sync
+// can be turned on or off at any time without losing a delete. The changes to
+// send are then a range of the seq indexes, however long the lists. Changes merged
+// from the server keep their sequence number, so they are not sent back. Stamps
+// follow the wall clock and the newest one seen from the server.
+// Only call this from one thread; TodoRepository uses its writer thread.
+public class TodoDatabase extends SQLiteOpenHelper {
+
+    private static final String TAG = "TodoDatabase";
+    private static final String DATABASE_NAME = "todos.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String COLUMNS = "id_msb, id_lsb, title, completed, position, created, due";
+    private static final String STAMP_COLUMNS = "title_stamp, completed_stamp, position_stamp, due_stamp";
+    private static final String INSERT_COLUMNS = COLUMNS + ", list_id, " + STAMP_COLUMNS + ", seq";
+    private static final String WHERE_ID = " WHERE id_msb = ? AND id_lsb = ?";
+    // That of TodoCollection.BY_ORDER, which todos that share a position are in too
+    private static final String DISPLAY_ORDER = "position DESC, id_msb, id_lsb";
+    // Lists are numbered in the order they were created.
+    private static final String NEXT_LIST_POSITION = "(SELECT IFNULL(MAX(position), 0) + 1 FROM lists)";
+
+    // Reads the lists to fill a newly created database with, e.g. from a backup or
+    // what older versions kept.
+    public interface LegacySource {
+        List<TodoPartition> read() throws IOException;
+    }
+
+    // Works out the ops for a change from what is stored, in the transaction that
+    // applies them, e.g. toggling every active todo of a list.
+    public interface Plan {
+        List<TodoOp> plan(TodoDatabase database);
+    }
+
+    // What apply() did: the ops that changed something, as stored, the ops that
+    // undo them, in the order to apply them, and each todo touched as it was before
+    // and after, null where there was none.
+    public static final class Applied {
+        final ArrayList<TodoOp> ops = new ArrayList<>();
+        final ArrayList<TodoOp> inverse = new ArrayList<>();
+        final ArrayList<Todo> before = new ArrayList<>();
+        final ArrayList<Todo> after = new ArrayList<>();
+        int removed;
+
+        public List<TodoOp> getOps() { return ops; }
+        public List<TodoOp> getInverse() { return inverse; }
+        public List<Todo> getBefore() { return before; }
+        public List<Todo> getAfter() { return after; }
+        public int getRemoved() { return removed; }
+        public boolean isEmpty() { return ops.isEmpty(); }
+
+        private void add(TodoOp op, TodoOp undo, Todo todoBefore, Todo todoAfter) {
+            ops.add(op);
+            inverse.add(undo);
+            before.add(todoBefore);
+            after.add(todoAfter);
+        }
+    }
+
+    // What a merge changed: the ops that bring each list's todos up to date, keyed
+    // by list, and whether any list was created, renamed or deleted.
+    public static final class Merged {
+        final HashMap<Long, ArrayList<TodoOp>> ops = new HashMap<>();
+        boolean listsChanged;
+
+        public HashMap<Long, ArrayList<TodoOp>> getOps() { return ops; }
+        public boolean isListsChanged() { return listsChanged; }
+
+        private void add(long listId, TodoOp op) {
+            ArrayList<TodoOp> list = ops.get(listId);
+            if (list == null) {
+                list = new ArrayList<>();
+                ops.put(listId, list);
+            }
+            list.add(op);
+        }
+    }
+
+    private final LegacySource legacySource;
+    private boolean imported;
+    // The last sequence number written, or -1 until read
+    private long seq = -1;
+    // The newest stamp written or merged, or -1 until read
+    private long lastStamp = -1;
+    private final LongSupplier clock;
+
+    public TodoDatabase(Context context, LegacySource legacySource) {
+        this(context, DATABASE_NAME, legacySource, System::currentTimeMillis);
+    }
+
+    // For tests, which run several databases side by side on clocks of their own.
+    TodoDatabase(Context context, String name, LegacySource legacySource, LongSupplier clock) {
+        super(context, name, null, DATABASE_VERSION);
+        this.legacySource = legacySource;
+        this.clock = clock;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE todos ("
+                + "id_msb INTEGER NOT NULL, "
+                + "id_lsb INTEGER NOT NULL, "
+                + "title TEXT NOT NULL, "
+                + "completed INTEGER NOT NULL, "
+                + "position INTEGER NOT NULL, "
+                + "list_id INTEGER NOT NULL, "
+                + "created INTEGER NOT NULL, "
+                + "due INTEGER NOT NULL, "
+                + "title_stamp INTEGER NOT NULL, "
+                + "completed_stamp INTEGER NOT NULL, "
+                + "position_stamp INTEGER NOT NULL, "
+                + "due_stamp INTEGER NOT NULL, "
+                + "seq INTEGER NOT NULL, "
+                + "PRIMARY KEY (id_msb, id_lsb))");
+        db.execSQL("CREATE TABLE lists ("
+                + "id INTEGER PRIMARY KEY, "
+                + "name TEXT NOT NULL, "
+                + "position INTEGER NOT NULL, "
+                + "stamp INTEGER NOT NULL, "
+                + "seq INTEGER NOT NULL)");
+        // Both in display order, DISPLAY_ORDER, so pages need no sort.
+        db.execSQL("CREATE INDEX todos_list_position ON todos (list_id, position DESC, id_msb, id_lsb)");
+        db.execSQL("CREATE INDEX todos_list_completed_position ON todos "
+                + "(list_id, completed, position DESC, id_msb, id_lsb)");
+        // Only active todos with a due time, which are usually few, are in it.
+        db.execSQL("CREATE INDEX todos_due ON todos (due) WHERE completed = 0 AND due > 0");
+        // For queries of a time range in any status
+        db.execSQL("CREATE INDEX todos_list_due ON todos (list_id, due) WHERE due > 0");
+        db.execSQL("CREATE INDEX todos_list_created ON todos (list_id, created)");
+        db.execSQL("CREATE INDEX todos_seq ON todos (seq)");
+        // A deleted list's tombstone has an id_msb of 0, which no random todo id
+        // has, and the list's id as its id_lsb.
+        db.execSQL("CREATE TABLE tombstones ("
+                + "id_msb INTEGER NOT NULL, "
+                + "id_lsb INTEGER NOT NULL, "
+                + "list_id INTEGER NOT NULL, "
+                + "stamp INTEGER NOT NULL, "
+                + "seq INTEGER NOT NULL, "
+                + "PRIMARY KEY (id_msb, id_lsb))");
+        db.execSQL("CREATE INDEX tombstones_seq ON tombstones (seq)");
+        db.execSQL("CREATE TABLE sync_state (server_seq INTEGER NOT NULL, pushed_seq INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO sync_state VALUES (0, 0)");
+
+        // Runs in the same transaction as the schema, so an interrupted import is
+        // simply retried on the next open. One that fails leaves a marker instead,
+        // and is retried by onOpen() until it succeeds; the old files stay until then.
+        List<TodoPartition> partitions = new ArrayList<>();
+        try {
+            partitions = legacySource.read();
+            imported = true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to import todos", e);
+            db.execSQL("CREATE TABLE legacy_import (pending INTEGER)");
+        }
+        for (TodoPartition partition : partitions) {
+            insertList(db, partition.getListId(), partition.getName(), 0, 1);
+            insertAll(db, partition.getListId(), partition.getTodos(), 1);
+        }
+        if (partitions.isEmpty()) {
+            insertList(db, TodoList.DEFAULT_ID, TodoList.DEFAULT_NAME, 0, 1);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (!db.isReadOnly() && DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'legacy_import'", null) > 0) {
+            retryImport(db);
+        }
+    }
+
+    // Adds the old lists to whatever was written since the database was created,
+    // keeping the names of lists that exist by now.
+    private void retryImport(SQLiteDatabase db) {
+        List<TodoPartition> partitions;
+        try {
+            partitions = legacySource.read();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to import todos", e);
+            return;
+        }
+        db.beginTransaction();
+        try {
+            long seq = maxSeq(db) + 1;
+            for (TodoPartition partition : partitions) {
+                db.execSQL("INSERT OR IGNORE INTO lists (id, name, position, stamp, seq) VALUES (?, ?, "
+                        + NEXT_LIST_POSITION + ", 0, ?)", new Object[] {partition.getListId(), partition.getName(), seq});
+                insertAll(db, partition.getListId(), partition.getTodos(), seq);
+            }
+            db.execSQL("DROP TABLE legacy_import");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        imported = true;
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // There is only the first version so far. What versions before the database
+        // kept is imported by onCreate().
+    }
+
+    // True once the old list has been copied into a newly created database, so its
+    // files can be deleted.
+    public boolean wasImported() {
+        return imported;
+    }
+
+    // All todos of a list in display order, newest first.
+    public ArrayList<Todo> readAll(long listId) {
+        return query("SELECT " + COLUMNS + " FROM todos WHERE list_id = ? ORDER BY " + DISPLAY_ORDER,
+                new String[] {Long.toString(listId)});
+    }
+
+    // The earliest due time after the given one of an active todo in any list, or 0
+    // if there is none. The due > 0 term lets SQLite use the partial index.
+    public long readNextDue(long after) {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT IFNULL(MIN(due), 0) FROM todos WHERE completed = 0 AND due > 0 AND due > ?",
+                new String[] {Long.toString(after)});
+    }
+
+    // Active todos in any list due after from, up to and including to, soonest first.
+    public ArrayList<Todo> readDue(long from, long to) {
+        return query("SELECT " + COLUMNS + " FROM todos WHERE completed = 0 AND due > 0 AND due > ? AND due <= ? "
+                + "ORDER BY due", new String[] {Long.toString(from), Long.toString(to)});
+    }
+
+    // The earliest due time after the given one of an active todo in the list, or 0
+    // if there is none.
+    public long readNextDue(long listId, long after) {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT IFNULL(MIN(due), 0) FROM todos WHERE list_id = ? AND completed = 0 AND due > 0 AND due > ?",
+                new String[] {Long.toString(listId), Long.toString(after)});
+    }
+
+    // How many todos of the list the query holds. The query must not have words;
+    // TodoSearch answers those.
+    public int count(long listId, TodoQuery query) {
+        ArrayList<String> args = new ArrayList<>();
+        String where = where(listId, query, args);
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT COUNT(*) FROM todos WHERE " + where,
+                args.toArray(new String[0]));
+    }
+
+    // The todos of the list the query holds, in display order, from start on. The
+    // offset steps over index entries only for a status; a time range is a range
+    // of its own index, sorted.
+    public ArrayList<Todo> readPage(long listId, TodoQuery query, int start, int count) {
+        ArrayList<String> args = new ArrayList<>();
+        String sql = pageQuery(listId, query, start, count, args);
+        return query(sql, args.toArray(new String[0]));
+    }
+
+    // For tests: how SQLite reads a page of the query, a line per step.
+    ArrayList<String> explainPage(long listId, TodoQuery query) {
+        ArrayList<String> args = new ArrayList<>();
+        String sql = pageQuery(listId, query, 0, TodoSnapshot.FIRST_ROWS, args);
+        ArrayList<String> steps = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql,
+                args.toArray(new String[0]))) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                steps.add(cursor.getString(detail));
+            }
+        }
+        return steps;
+    }
+
+    private static String pageQuery(long listId, TodoQuery query, int start, int count, List<String> args) {
+        String where = where(listId, query, args);
+        args.add(Integer.toString(count));
+        args.add(Integer.toString(start));
+        return "SELECT " + COLUMNS + " FROM todos WHERE " + where + " ORDER BY " + DISPLAY_ORDER + " LIMIT ? OFFSET ?";
+    }
+
+    // The terms that pick the todos of the list the query holds; adds their
+    // arguments to args. A due range implies the terms of the due indexes.
+    private static String where(long listId, TodoQuery query, List<String> args) {
+        if (query.hasWords()) throw new IllegalArgumentException("Words are not stored");
+        StringBuilder where = new StringBuilder("list_id = ?");
+        args.add(Long.toString(listId));
+        if (query.getStatus() == TodoQuery.Status.ACTIVE) {
+            where.append(" AND completed = 0");
+        } else if (query.getStatus() == TodoQuery.Status.COMPLETED) {
+            where.append(" AND completed = 1");
+        }
+        if (query.hasDueRange()) {
+            where.append(" AND due > 0");
+            range(where, "due", query.getDueFrom(), query.getDueTo(), args);
+        }
+        range(where, "created", query.getCreatedFrom(), query.getCreatedTo(), args);
+        return where.toString();
+    }
+
+    private static void range(StringBuilder where, String column, long from, long to, List<String> args) {
+        if (from != 0) {
+            where.append(" AND ").append(column).append(" >= ?");
+            args.add(Long.toString(from));
+        }
+        if (to != 0) {
+            where.append(" AND ").append(column).append(" < ?");
+            args.add(Long.toString(to));
+        }
+    }
+
+    // Every list with its counts, oldest first. The counts are index range counts;
+    // no todo rows are read.
+    public ArrayList<TodoList> readLists() {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT id, name, "
+                + "(SELECT COUNT(*) FROM todos WHERE list_id = lists.id AND completed = 0), "
+                + "(SELECT COUNT(*) FROM todos WHERE list_id = lists.id AND completed = 1) "
+                + "FROM lists ORDER BY position", null)) {
+            ArrayList<TodoList> lists = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                lists.add(new TodoList(cursor.getLong(0), cursor.getString(1), cursor.getInt(2), cursor.getInt(3)));
+            }
+            return lists;
+        }
+    }
+
+    // Every list with all of its todos, e.g. for a backup.
+    public ArrayList<TodoPartition> readPartitions() {
+        ArrayList<TodoPartition> partitions = new ArrayList<>();
+        for (TodoList list : readLists()) {
+            partitions.add(new TodoPartition(list.getId(), list.getName(), readAll(list.getId())));
+        }
+        return partitions;
+    }
+
+    public void createList(long listId, String name) {
+        SQLiteDatabase db = getWritableDatabase();
+        insertList(db, listId, name, nextStamp(), nextSeq());
+    }
+
+    // Removes the list and its todos in one transaction. Its tombstone stands for
+    // the todos too.
+    public void deleteList(long listId) {
+        SQLiteDatabase db = getWritableDatabase();
+        Object[] args = {listId};
+        long stamp = nextStamp();
+        long seq = nextSeq();
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM todos WHERE list_id = ?", args);
+            db.execSQL("DELETE FROM lists WHERE id = ?", args);
+            db.execSQL("INSERT OR REPLACE INTO tombstones VALUES (0, ?, ?, ?, ?)",
+                    new Object[] {listId, listId, stamp, seq});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Applies the ops in order as one transaction, see applyPlans().
+    public Applied apply(List<TodoOp> ops) {
+        return applyPlans(Collections.singletonList(database -> ops)).get(0);
+    }
+
+    // Works out and applies each plan's ops in order, all as one transaction, so a
+    // plan sees what those before it wrote. The fields each op sets are stamped,
+    // and its rows marked with the transaction's sequence number. Ops that would
+    // change nothing, e.g. for a todo that is gone, are skipped. An ADD without an
+    // order goes on top of its list. Returns what each plan did.
+    public ArrayList<Applied> applyPlans(List<Plan> plans) {
+        SQLiteDatabase db = getWritableDatabase();
+        ArrayList<Applied> results = new ArrayList<>(plans.size());
+        SQLiteStatement insert = null;
+        long seq = nextSeq();
+        db.beginTransaction();
+        try {
+            for (Plan plan : plans) {
+                Applied applied = new Applied();
+                for (TodoOp op : plan.plan(this)) {
+                    if (op.getType() == TodoOp.CLEAR_COMPLETED) {
+                        clearCompleted(db, op, seq, applied);
+                        continue;
+                    }
+                    long stamp = nextStamp();
+                    TodoId id = op.getId();
+                    Object[] idArgs = {id.getMostSigBits(), id.getLeastSigBits()};
+                    TodoChange stored = readStored(db, id);
+                    Todo before = stored != null ? stored.toTodo() : null;
+                    if (op.getType() == TodoOp.ADD) {
+                        if (before != null) continue;
+                        long order = op.getOrder() != 0 ? op.getOrder() : DatabaseUtils.longForQuery(db,
+                                "SELECT IFNULL(MAX(position), 0) FROM todos WHERE list_id = ?",
+                                new String[] {Long.toString(op.getListId())}) + Todo.ORDER_GAP;
+                        Todo added = new Todo(id, op.getTitle(), op.isCompleted(), order, op.getCreated(), op.getDue());
+                        if (insert == null) insert = compileInsert(db);
+                        bindTodo(insert, op.getListId(), id, added.getTitle(), added.isCompleted(), order,
+                                added.getCreated(), added.getDue(), stamp, seq);
+                        insert.executeInsert();
+                        applied.add(TodoOp.add(op.getListId(), added), TodoOp.delete(id), null, added);
+                        continue;
+                    }
+                    if (before == null) continue;
+                    switch (op.getType()) {
+                        case TodoOp.TOGGLE:
+                            if (before.isCompleted() == op.isCompleted()) break;
+                            db.execSQL("UPDATE todos SET completed = ?, completed_stamp = ?, seq = ?" + WHERE_ID,
+                                    new Object[] {op.isCompleted() ? 1 : 0, stamp, seq, idArgs[0], idArgs[1]});
+                            applied.add(op, TodoOp.toggle(id, before.isCompleted()), before,
+                                    before.withCompleted(op.isCompleted()));
+                            break;
+                        case TodoOp.RENAME:
+                            if (before.getTitle().equals(op.getTitle())) break;
+                            db.execSQL("UPDATE todos SET title = ?, title_stamp = ?, seq = ?" + WHERE_ID,
+                                    new Object[] {op.getTitle(), stamp, seq, idArgs[0], idArgs[1]});
+                            applied.add(op, TodoOp.rename(id, before.getTitle()), before, before.withTitle(op.getTitle()));
+                            break;
+                        case TodoOp.DELETE:
+                            db.execSQL("INSERT OR REPLACE INTO tombstones SELECT id_msb, id_lsb, list_id, ?, ? "
+                                    + "FROM todos" + WHERE_ID, new Object[] {stamp, seq, idArgs[0], idArgs[1]});
+                            db.execSQL("DELETE FROM todos" + WHERE_ID, idArgs);
+                            applied.add(op, TodoOp.add(stored.getListId(), before), before, null);
+                            applied.removed++;
+                            break;
+                        case TodoOp.SET_DUE:
+                            if (before.getDue() == op.getDue()) break;
+                            db.execSQL("UPDATE todos SET due = ?, due_stamp = ?, seq = ?" + WHERE_ID,
+                                    new Object[] {op.getDue(), stamp, seq, idArgs[0], idArgs[1]});
+                            applied.add(op, TodoOp.setDue(id, before.getDue()), before, before.withDue(op.getDue()));
+                            break;
+                        case TodoOp.MOVE:
+                            if (before.getOrder() == op.getOrder()) break;
+                            db.execSQL("UPDATE todos SET position = ?, position_stamp = ?, seq = ?" + WHERE_ID,
+                                    new Object[] {op.getOrder(), stamp, seq, idArgs[0], idArgs[1]});
+                            applied.add(op, TodoOp.move(id, before.getOrder()), before, before.withOrder(op.getOrder()));
+                            break;
+                    }
+                }
+                Collections.reverse(applied.inverse);
+                results.add(applied);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (insert != null) insert.close();
+        }
+        return results;
+    }
+
+    // Undone by adding the cleared todos back in their places.
+    private void clearCompleted(SQLiteDatabase db, TodoOp op, long seq, Applied applied) {
+        ArrayList<Todo> cleared = query("SELECT " + COLUMNS + " FROM todos WHERE list_id = ? AND completed = 1",
+                new String[] {Long.toString(op.getListId())});
+        if (cleared.isEmpty()) return;
+        Object[] args = {op.getListId()};
+        db.execSQL("INSERT OR REPLACE INTO tombstones SELECT id_msb, id_lsb, list_id, ?, ? "
+                + "FROM todos WHERE list_id = ? AND completed = 1", new Object[] {nextStamp(), seq, op.getListId()});
+        db.execSQL("DELETE FROM todos WHERE list_id = ? AND completed = 1", args);
+        applied.ops.add(op);
+        for (Todo todo : cleared) {
+            applied.inverse.add(TodoOp.add(op.getListId(), todo));
+            applied.before.add(todo);
+            applied.after.add(null);
+        }
+        applied.removed += cleared.size();
+    }
+
+    // Completes every todo of the list, or reopens them all if they are all
+    // completed already.
+    public List<TodoOp> planToggleAll(long listId) {
+        boolean completed = count(listId, TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE)) > 0;
+        ArrayList<TodoOp> ops = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT id_msb, id_lsb FROM todos "
+                + "WHERE list_id = ? AND completed = ?", new String[] {Long.toString(listId), completed ? "0" : "1"})) {
+            while (cursor.moveToNext()) {
+                ops.add(TodoOp.toggle(new TodoId(cursor.getLong(0), cursor.getLong(1)), completed));
+            }
+        }
+        return ops;
+    }
+
+    // Completes the given todos, or reopens them if they are all completed already.
+    public List<TodoOp> planToggle(Collection<TodoId> ids) {
+        SQLiteDatabase db = getReadableDatabase();
+        boolean completed = false;
+        for (TodoId id : ids) {
+            TodoChange stored = readStored(db, id);
+            if (stored != null && !stored.isCompleted()) {
+                completed = true;
+                break;
+            }
+        }
+        ArrayList<TodoOp> ops = new ArrayList<>(ids.size());
+        for (TodoId id : ids) {
+            ops.add(TodoOp.toggle(id, completed));
+        }
+        return ops;
+    }
+
+    // Moves a todo to just below another one of its list, or to its top if that is
+    // null, see TodoMoves. Where the two are is counted on the list's index, and
+    // only the rows around the new place are read.
+    public List<TodoOp> planMove(TodoId id, TodoId aboveId) {
+        SQLiteDatabase db = getReadableDatabase();
+        TodoChange stored = readStored(db, id);
+        if (stored == null || id.equals(aboveId)) return Collections.emptyList();
+        long listId = stored.getListId();
+        Todo todo = stored.toTodo();
+        int from = rank(db, listId, todo);
+        // Where the todo goes among the others
+        int index = 0;
+        if (aboveId != null) {
+            TodoChange above = readStored(db, aboveId);
+            if (above == null || above.getListId() != listId) return Collections.emptyList();
+            int aboveRank = rank(db, listId, above.toTodo());
+            index = (from < aboveRank ? aboveRank - 1 : aboveRank) + 1;
+        }
+        if (index == from) return Collections.emptyList();
+
+        List<Todo> rest = new OtherTodos(listId, id, count(listId, TodoQuery.ALL) - 1);
+        List<Todo> moved = TodoMoves.planMove(todo, index, rest);
+        ArrayList<TodoOp> ops = new ArrayList<>(moved.size());
+        for (Todo next : moved) {
+            ops.add(TodoOp.move(next.getId(), next.getOrder()));
+        }
+        return ops;
+    }
+
+    // How many todos of the list come before the given one in display order. SQLite
+    // before 3.15 has no row values, so the tie-breaks on the id are spelled out.
+    private static int rank(SQLiteDatabase db, long listId, Todo todo) {
+        String position = Long.toString(todo.getOrder());
+        String msb = Long.toString(todo.getId().getMostSigBits());
+        return (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM todos WHERE list_id = ? AND (position > ? "
+                + "OR (position = ? AND (id_msb < ? OR (id_msb = ? AND id_lsb < ?))))",
+                new String[] {Long.toString(listId), position, position, msb, msb,
+                        Long.toString(todo.getId().getLeastSigBits())});
+    }
+
+    // The todos of a list but one, in display order, read a block at a time around
+    // the rows asked for.
+    private final class OtherTodos extends AbstractList<Todo> {
+        private static final int BLOCK = 64;
+
+        private final String[] args;
+        private final int size;
+        private int blockStart;
+        private List<Todo> block = Collections.emptyList();
+
+        OtherTodos(long listId, TodoId excluded, int size) {
+            args = new String[] {Long.toString(listId), Long.toString(excluded.getMostSigBits()),
+                    Long.toString(excluded.getLeastSigBits()), null, null};
+            this.size = size;
+        }
+
+        @Override
+        public Todo get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index);
+            if (index < blockStart || index >= blockStart + block.size()) {
+                blockStart = Math.max(0, index - BLOCK / 2);
+                args[3] = Integer.toString(BLOCK);
+                args[4] = Integer.toString(blockStart);
+                block = query("SELECT " + COLUMNS + " FROM todos WHERE list_id = ? AND NOT (id_msb = ? AND id_lsb = ?) "
+                        + "ORDER BY " + DISPLAY_ORDER + " LIMIT ? OFFSET ?", args);
+            }
+            return block.get(index - blockStart);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    // The server's sequence number the last sync caught up to.
+    public long readSyncCursor() {
+        return DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT server_seq FROM sync_state", null);
+    }
+
+    // Everything written here since the last sync, lists first; the batch's
+    // sequence number is the last one it covers.
+    public TodoSync.Batch readChanges() {
+        SQLiteDatabase db = getReadableDatabase();
+        String[] pushed = {Long.toString(DatabaseUtils.longForQuery(db, "SELECT pushed_seq FROM sync_state", null))};
+        ArrayList<TodoChange> changes = new ArrayList<>();
+        ArrayList<TodoChange> deleted = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT id, name, stamp FROM lists WHERE seq > ?", pushed)) {
+            while (cursor.moveToNext()) {
+                changes.add(TodoChange.list(cursor.getLong(0), cursor.getString(1), cursor.getLong(2)));
+            }
+        }
+        try (Cursor cursor = db.rawQuery("SELECT id_msb, id_lsb, list_id, stamp FROM tombstones WHERE seq > ?", pushed)) {
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(0) == 0) {
+                    changes.add(TodoChange.deletedList(cursor.getLong(2), cursor.getLong(3)));
+                } else {
+                    deleted.add(TodoChange.deleted(new TodoId(cursor.getLong(0), cursor.getLong(1)),
+                            cursor.getLong(2), cursor.getLong(3)));
+                }
+            }
+        }
+        try (Cursor cursor = db.rawQuery("SELECT " + COLUMNS + ", list_id, " + STAMP_COLUMNS
+                + " FROM todos WHERE seq > ?", pushed)) {
+            while (cursor.moveToNext()) {
+                changes.add(readChange(cursor));
+            }
+        }
+        changes.addAll(deleted);
+        return new TodoSync.Batch(seq(), changes);
+    }
+
+    // One round trip with the server: sends the changes made since the last one and
+    // merges those other replicas made. Queued writes should be applied first.
+    public Merged sync(TodoSync.Server server) throws IOException {
+        TodoSync.Batch local = readChanges();
+        TodoSync.Batch remote = TodoSync.exchange(server, readSyncCursor(), local.getChanges());
+        return merge(remote, local.getSeq());
+    }
+
+    // Merges the server's changes in one transaction, and records that the local
+    // changes up to pushedSeq have been sent. Their tombstones are no longer needed:
+    // the server has them.
+    public Merged merge(TodoSync.Batch batch, long pushedSeq) {
+        SQLiteDatabase db = getWritableDatabase();
+        Merged merged = new Merged();
+        db.beginTransaction();
+        try {
+            for (TodoChange change : batch.getChanges()) {
+                lastStamp = Math.max(lastStamp(), change.maxStamp());
+                if (change.isList()) {
+                    mergeList(db, change, merged);
+                } else {
+                    mergeTodo(db, change, merged);
+                }
+            }
+            TodoMetrics.SYNC_CHANGES_MERGED.add(batch.getChanges().size());
+            db.execSQL("UPDATE sync_state SET server_seq = ?, pushed_seq = ?", new Object[] {batch.getSeq(), pushedSeq});
+            db.execSQL("DELETE FROM tombstones WHERE seq <= ?", new Object[] {pushedSeq});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return merged;
+    }
+
+    private static void mergeList(SQLiteDatabase db, TodoChange change, Merged merged) {
+        Object[] args = {change.getListId()};
+        TodoChange local = null;
+        try (Cursor cursor = db.rawQuery("SELECT name, stamp FROM lists WHERE id = ?",
+                new String[] {Long.toString(change.getListId())})) {
+            if (cursor.moveToFirst()) {
+                local = TodoChange.list(change.getListId(), cursor.getString(0), cursor.getLong(1));
+            }
+        }
+        TodoChange result = local != null ? TodoChange.merge(local, change) : change;
+        if (result.isDeleted()) {
+            if (local == null) return;
+            db.execSQL("DELETE FROM todos WHERE list_id = ?", args);
+            db.execSQL("DELETE FROM lists WHERE id = ?", args);
+        } else if (local == null) {
+            insertList(db, result.getListId(), result.getTitle(), result.getTitleStamp(), 0);
+        } else if (!result.getTitle().equals(local.getTitle()) || result.getTitleStamp() != local.getTitleStamp()) {
+            db.execSQL("UPDATE lists SET name = ?, stamp = ? WHERE id = ?",
+                    new Object[] {result.getTitle(), result.getTitleStamp(), change.getListId()});
+        } else {
+            return;
+        }
+        merged.listsChanged = true;
+    }
+
+    // Todos of a list that is not here, e.g. one deleted here meanwhile, are dropped.
+    private static void mergeTodo(SQLiteDatabase db, TodoChange change, Merged merged) {
+        TodoId id = change.getId();
+        TodoChange local = readStored(db, id);
+        TodoChange result = local != null ? TodoChange.merge(local, change) : change;
+        if (result.equals(local)) return;
+        Object[] idArgs = {id.getMostSigBits(), id.getLeastSigBits()};
+        if (result.isDeleted()) {
+            if (local == null) return;
+            db.execSQL("DELETE FROM todos" + WHERE_ID, idArgs);
+            merged.add(local.getListId(), TodoOp.delete(id));
+        } else if (local == null) {
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM lists WHERE id = ?",
+                    new String[] {Long.toString(result.getListId())}) == 0) return;
+            db.execSQL("INSERT INTO todos (" + INSERT_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)",
+                    new Object[] {id.getMostSigBits(), id.getLeastSigBits(), result.getTitle(),
+                            result.isCompleted() ? 1 : 0, result.getOrder(), result.getCreated(), result.getDue(),
+                            result.getListId(), result.getTitleStamp(), result.getCompletedStamp(),
+                            result.getOrderStamp(), result.getDueStamp()});
+            merged.add(result.getListId(), TodoOp.add(result.getListId(), result.toTodo()));
+        } else {
+            db.execSQL("UPDATE todos SET title = ?, completed = ?, position = ?, created = ?, due = ?, "
+                    + "title_stamp = ?, completed_stamp = ?, position_stamp = ?, due_stamp = ?" + WHERE_ID,
+                    new Object[] {result.getTitle(), result.isCompleted() ? 1 : 0, result.getOrder(),
+                            result.getCreated(), result.getDue(), result.getTitleStamp(), result.getCompletedStamp(),
+                            result.getOrderStamp(), result.getDueStamp(), id.getMostSigBits(), id.getLeastSigBits()});
+            long listId = local.getListId();
+            if (!result.getTitle().equals(local.getTitle())) merged.add(listId, TodoOp.rename(id, result.getTitle()));
+            if (result.isCompleted() != local.isCompleted()) merged.add(listId, TodoOp.toggle(id, result.isCompleted()));
+            if (result.getDue() != local.getDue()) merged.add(listId, TodoOp.setDue(id, result.getDue()));
+            if (result.getOrder() != local.getOrder()) merged.add(listId, TodoOp.move(id, result.getOrder()));
+        }
+    }
+
+    // The todo as stored, with its list and stamps, or null if there is none.
+    private static TodoChange readStored(SQLiteDatabase db, TodoId id) {
+        try (Cursor cursor = db.rawQuery("SELECT " + COLUMNS + ", list_id, " + STAMP_COLUMNS + " FROM todos" + WHERE_ID,
+                new String[] {Long.toString(id.getMostSigBits()), Long.toString(id.getLeastSigBits())})) {
+            return cursor.moveToFirst() ? readChange(cursor) : null;
+        }
+    }
+
+    // Reads COLUMNS, list_id and STAMP_COLUMNS.
+    private static TodoChange readChange(Cursor cursor) {
+        return new TodoChange(new TodoId(cursor.getLong(0), cursor.getLong(1)), cursor.getLong(7),
+                cursor.getString(2), cursor.getInt(3) != 0, cursor.getLong(4), cursor.getLong(5), cursor.getLong(6),
+                cursor.getLong(8), cursor.getLong(9), cursor.getLong(10), cursor.getLong(11), 0);
+    }
+
+    // The last sequence number written; read from the seq indexes once.
+    private long seq() {
+        if (seq < 0) {
+            seq = maxSeq(getReadableDatabase());
+        }
+        return seq;
+    }
+
+    private static long maxSeq(SQLiteDatabase db) {
+        return Math.max(Math.max(
+                DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM todos", null),
+                DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM tombstones", null)),
+                DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM lists", null));
+    }
+
+    private long nextSeq() {
+        seq = seq() + 1;
+        return seq;
+    }
+
+    private long nextStamp() {
+        lastStamp = TodoChange.nextStamp(lastStamp(), clock.getAsLong());
+        return lastStamp;
+    }
+
+    // Read once from what is stored, so stamps keep rising across restarts even
+    // when the clock is behind one seen from another device before.
+    private long lastStamp() {
+        if (lastStamp < 0) {
+            SQLiteDatabase db = getReadableDatabase();
+            lastStamp = Math.max(Math.max(
+                    DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(MAX(title_stamp, completed_stamp, "
+                            + "position_stamp, due_stamp)), 0) FROM todos", null),
+                    DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(stamp), 0) FROM lists", null)),
+                    DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(stamp), 0) FROM tombstones", null));
+        }
+        return lastStamp;
+    }
+
+    // Housekeeping, best run while the app is idle:
+    // - checks the file, and rebuilds the indexes if it finds them damaged
+    // - removes todos whose list is gone, e.g. ones queued while it was deleted
+    // - removes tombstones that have been sent, or all of them if nothing has ever
+    //   been: the server has no todo from here for them to delete
+    // - refreshes the statistics the query planner picks indexes by
+    // - vacuums once a quarter of the file is free pages left by deletes
+    // - folds the write-ahead log back into the database and truncates it, so the
+    //   next start does not read through it
+    public void maintain() {
+        SQLiteDatabase db = getWritableDatabase();
+        String check = DatabaseUtils.stringForQuery(db, "PRAGMA quick_check", null);
+        if (!"ok".equals(check)) {
+            Log.w(TAG, "Rebuilding indexes: " + check);
+            db.execSQL("REINDEX");
+        }
+        db.execSQL("DELETE FROM todos WHERE list_id NOT IN (SELECT id FROM lists)");
+        // A sync records the last seq written here, at least that of the first list.
+        long pushed = DatabaseUtils.longForQuery(db, "SELECT pushed_seq FROM sync_state", null);
+        if (pushed > 0) {
+            db.execSQL("DELETE FROM tombstones WHERE seq <= ?", new Object[] {pushed});
+        } else {
+            db.execSQL("DELETE FROM tombstones");
+        }
+        db.execSQL("ANALYZE");
+
+        long free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        if (free * 4 > pages) {
+            db.execSQL("VACUUM");
+        }
+        try (Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+            cursor.moveToFirst();
+        }
+    }
+
+    private static void insertList(SQLiteDatabase db, long listId, String name, long stamp, long seq) {
+        db.execSQL("INSERT OR REPLACE INTO lists (id, name, position, stamp, seq) VALUES (?, ?, "
+                + NEXT_LIST_POSITION + ", ?, ?)", new Object[] {listId, name, stamp, seq});
+    }
+
+    // Takes a list in display order; the first todo gets the highest position.
+    // Positions are spaced like those of todos added one by one.
+    private static void insertAll(SQLiteDatabase db, long listId, List<Todo> todos, long seq) {
+        SQLiteStatement insert = compileInsert(db);
+        try {
+            for (int i = 0; i < todos.size(); i++) {
+                Todo todo = todos.get(i);
+                bindTodo(insert, listId, todo.getId(), todo.getTitle(), todo.isCompleted(),
+                        (todos.size() - i) * Todo.ORDER_GAP, todo.getCreated(), todo.getDue(), 0, seq);
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static SQLiteStatement compileInsert(SQLiteDatabase db) {
+        return db.compileStatement("INSERT OR REPLACE INTO todos (" + INSERT_COLUMNS + ") "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    // Every field gets the same stamp.
+    private static void bindTodo(SQLiteStatement statement, long listId, TodoId id, String title,
+            boolean completed, long order, long created, long due, long stamp, long seq) {
+        statement.bindLong(1, id.getMostSigBits());
+        statement.bindLong(2, id.getLeastSigBits());
+        statement.bindString(3, title);
+        statement.bindLong(4, completed ? 1 : 0);
+        statement.bindLong(5, order);
+        statement.bindLong(6, created);
+        statement.bindLong(7, due);
+        statement.bindLong(8, listId);
+        for (int i = 9; i <= 12; i++) {
+            statement.bindLong(i, stamp);
+        }
+        statement.bindLong(13, seq);
+    }
+
+    private ArrayList<Todo> query(String sql, String[] args) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            ArrayList<Todo> todos = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                TodoId id = new TodoId(cursor.getLong(0), cursor.getLong(1));
+                todos.add(new Todo(id, cursor.getString(2), cursor.getInt(3) != 0, cursor.getLong(4),
+                        cursor.getLong(5), cursor.getLong(6)));
+            }
+            return todos;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package app.android.todomvc;
+
+import java.util.Calendar;
+
+// The filters for the list: presets of TodoQuery for the filter buttons.
+//
+// The status filters are ranges of one of TodoDatabase's display-order indexes,
+// and the date filters ranges of its due index; they hold as of the time given,
+// so the date ones are made again as the day goes by.
+public enum TodoFilter {
+    ALL,
+    ACTIVE,
+    COMPLETED,
+    // Active todos due before now
+    OVERDUE,
+    // Active todos due some time today, including earlier today
+    TODAY;
+
+    public boolean isDateFilter() {
+        return this == OVERDUE || this == TODAY;
+    }
+
+    public TodoQuery toQuery(long now) {
+        switch (this) {
+            case ACTIVE:
+                return TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE);
+            case COMPLETED:
+                return TodoQuery.ALL.withStatus(TodoQuery.Status.COMPLETED);
+            case OVERDUE:
+                return TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE).withDue(1, now);
+            case TODAY:
+                return TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE)
+                        .withDue(startOfDay(now, 0), startOfDay(now, 1));
+            default:
+                return TodoQuery.ALL;
+        }
+    }
+
+    // Midnight in the local time zone, days after the day of the given time.
+    public static long startOfDay(long time, int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        return calendar.getTimeInMillis();
+    }
+}
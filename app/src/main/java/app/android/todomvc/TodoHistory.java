@@ -0,0 +1,82 @@
+package app.android.todomvc;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+// Undo and redo for batches of TodoOps.
+//
+// Each change keeps the ops that were applied and the ops that reverse them, never
+// a copy of the list, so memory grows with the size of the changes rather than the
+// list. Once more than maxEntries changes or maxOps ops are held, the oldest
+// changes are dropped. The latest change is always kept, however large.
+public class TodoHistory {
+
+    private static final class Change {
+        final long id;
+        final List<TodoOp> ops;
+        final List<TodoOp> inverse;
+
+        Change(long id, List<TodoOp> ops, List<TodoOp> inverse) {
+            this.id = id;
+            this.ops = ops;
+            this.inverse = inverse;
+        }
+
+        int size() {
+            return ops.size() + inverse.size();
+        }
+    }
+
+    // Shared, so a change id never matches a change in another list's history.
+    private static long nextId = 1;
+
+    private final int maxEntries;
+    private final int maxOps;
+    private final ArrayDeque<Change> undo = new ArrayDeque<>();
+    private final ArrayDeque<Change> redo = new ArrayDeque<>();
+    private int heldOps;
+
+    public TodoHistory(int maxEntries, int maxOps) {
+        this.maxEntries = maxEntries;
+        this.maxOps = maxOps;
+    }
+
+    // The inverse must already be in the order it is to be applied. Returns the id
+    // that undo() takes.
+    public long record(List<TodoOp> ops, List<TodoOp> inverse) {
+        for (Change change : redo) {
+            heldOps -= change.size();
+        }
+        redo.clear();
+
+        Change change = new Change(nextId++, ops, inverse);
+        undo.addLast(change);
+        heldOps += change.size();
+        while (undo.size() > 1 && (undo.size() > maxEntries || heldOps > maxOps)) {
+            heldOps -= undo.removeFirst().size();
+        }
+        return change.id;
+    }
+
+    // The id of the change undo() would reverse, or 0 if there is none.
+    public long getUndoId() {
+        Change change = undo.peekLast();
+        return change == null ? 0 : change.id;
+    }
+
+    // Returns the ops that reverse the given change, or null unless it is the latest.
+    public List<TodoOp> undo(long id) {
+        Change change = undo.peekLast();
+        if (change == null || change.id != id) return null;
+        redo.addLast(undo.removeLast());
+        return change.inverse;
+    }
+
+    // Returns the ops of the given undone change, or null unless it was undone last.
+    public List<TodoOp> redo(long id) {
+        Change change = redo.peekLast();
+        if (change == null || change.id != id) return null;
+        undo.addLast(redo.removeLast());
+        return change.ops;
+    }
+}
@@ -0,0 +1,62 @@
+package app.android.todomvc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+// A sync server reached over HTTP, at the URL set in the app.
+//
+// A round trip is one POST: the body is the encoded request batch, and a 200
+// response's body the encoded response batch, see TodoLoopbackServer for what a
+// server does with them. Anything else fails the round trip, which is then simply
+// made again by the next sync.
+public final class TodoHttpServer implements TodoSync.Server {
+
+    private static final int TIMEOUT_MS = 15_000;
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private final URL url;
+
+    public TodoHttpServer(String url) throws MalformedURLException {
+        this.url = new URL(url);
+        String protocol = this.url.getProtocol();
+        if (!protocol.equals("https") && !protocol.equals("http")) {
+            throw new MalformedURLException("Not an HTTP URL: " + url);
+        }
+    }
+
+    @Override
+    public byte[] exchange(byte[] request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(request.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(request);
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Sync server answered " + status);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    response.write(buffer, 0, read);
+                }
+                return response.toByteArray();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
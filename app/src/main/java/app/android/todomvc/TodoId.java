@@ -0,0 +1,56 @@
+package app.android.todomvc;
+
+import java.util.UUID;
+
+// A todo's id as the two halves of a random UUID, so comparing and hashing ids
+// never touches a string.
+public final class TodoId implements Comparable<TodoId> {
+
+    private final long mostSigBits;
+    private final long leastSigBits;
+
+    public TodoId(long mostSigBits, long leastSigBits) {
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+    }
+
+    public static TodoId random() {
+        UUID uuid = UUID.randomUUID();
+        return new TodoId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    // Parses the UUID strings that older versions used as ids.
+    public static TodoId fromString(String id) {
+        UUID uuid = UUID.fromString(id);
+        return new TodoId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    // Getters
+    public long getMostSigBits() { return mostSigBits; }
+    public long getLeastSigBits() { return leastSigBits; }
+
+    @Override
+    public int compareTo(TodoId other) {
+        int result = Long.compare(mostSigBits, other.mostSigBits);
+        return result != 0 ? result : Long.compare(leastSigBits, other.leastSigBits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TodoId)) return false;
+        TodoId other = (TodoId) o;
+        return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = mostSigBits ^ leastSigBits;
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
@@ -0,0 +1,30 @@
+package app.android.todomvc;
+
+// A named todo list and its counts.
+//
+// The counts come straight from the database indexes, so the lists can be shown
+// without reading any of their todos.
+public final class TodoList {
+
+    // The list todos saved before there were several lists belong to.
+    public static final long DEFAULT_ID = 1;
+    public static final String DEFAULT_NAME = "Todos";
+
+    private final long id;
+    private final String name;
+    private final int activeCount;
+    private final int completedCount;
+
+    public TodoList(long id, String name, int activeCount, int completedCount) {
+        this.id = id;
+        this.name = name;
+        this.activeCount = activeCount;
+        this.completedCount = completedCount;
+    }
+
+    // Getters
+    public long getId() { return id; }
+    public String getName() { return name; }
+    public int getActiveCount() { return activeCount; }
+    public int getCompletedCount() { return completedCount; }
+}
@@ -0,0 +1,127 @@
+package app.android.todomvc;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Reads the todo list written by versions that kept it in an operation log.
+//
+// Those versions appended every mutation to todos.log as a TodoOp record and
+// periodically folded the log into todos.snapshot. The list is now stored in
+// TodoDatabase; this is only used to import it once and then delete the files.
+public class TodoLog {
+
+    private static final String SNAPSHOT_FILE = "todos.snapshot";
+    private static final String SNAPSHOT_TMP_FILE = "todos.snapshot.tmp";
+    private static final String LOG_FILE = "todos.log";
+    private static final String COMPACTING_FILE = "todos.log.compacting";
+    private static final String HEAD_FILE = "todos.head";
+    private static final String HEAD_TMP_FILE = "todos.head.tmp";
+
+    private final File[] files;
+    private final File snapshotFile;
+    private final File logFile;
+    private final File compactingFile;
+
+    public TodoLog(File dir) {
+        snapshotFile = new File(dir, SNAPSHOT_FILE);
+        logFile = new File(dir, LOG_FILE);
+        compactingFile = new File(dir, COMPACTING_FILE);
+        files = new File[] {
+                snapshotFile, new File(dir, SNAPSHOT_TMP_FILE), logFile, compactingFile,
+                new File(dir, HEAD_FILE), new File(dir, HEAD_TMP_FILE),
+        };
+    }
+
+    public boolean exists() {
+        return snapshotFile.exists() || logFile.exists() || compactingFile.exists();
+    }
+
+    public ArrayList<Todo> load() throws IOException {
+        ArrayList<Todo> todos = readSnapshot();
+        // A compaction may have been interrupted; its log was never folded in.
+        replay(compactingFile, todos);
+        replay(logFile, todos);
+        return todos;
+    }
+
+    public void delete() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private ArrayList<Todo> readSnapshot() throws IOException {
+        if (!snapshotFile.exists()) return new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            return TodoCodec.readSnapshot(in);
+        }
+    }
+
+    // Applies the records in the given log to the list.
+    private void replay(File file, ArrayList<Todo> todos) throws IOException {
+        if (!file.exists()) return;
+
+        HashMap<TodoId, Todo> byId = new HashMap<>();
+        for (Todo todo : todos) {
+            byId.put(todo.getId(), todo);
+        }
+        ArrayList<Todo> added = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                TodoOp op;
+                try {
+                    op = TodoCodec.readOp(in);
+                } catch (IOException e) {
+                    // End of the log, a record cut short by a crash mid-write, or a
+                    // damaged one. Nothing after it can be trusted; everything before
+                    // it is kept.
+                    break;
+                }
+                Todo todo;
+                switch (op.getType()) {
+                    case TodoOp.ADD:
+                        todo = new Todo(op.getId(), op.getTitle(), op.isCompleted());
+                        byId.put(todo.getId(), todo);
+                        added.add(todo);
+                        break;
+                    case TodoOp.TOGGLE:
+                        todo = byId.get(op.getId());
+                        if (todo != null) byId.put(todo.getId(), todo.withCompleted(op.isCompleted()));
+                        break;
+                    case TodoOp.RENAME:
+                        todo = byId.get(op.getId());
+                        if (todo != null) byId.put(todo.getId(), todo.withTitle(op.getTitle()));
+                        break;
+                    case TodoOp.DELETE:
+                        byId.remove(op.getId());
+                        break;
+                    case TodoOp.CLEAR_COMPLETED:
+                        byId.values().removeIf(Todo::isCompleted);
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + op.getType());
+                }
+            }
+        }
+
+        // New todos go to the top, latest first, followed by the survivors of the old
+        // list, each in its latest version.
+        ArrayList<Todo> result = new ArrayList<>(byId.size());
+        for (int i = added.size() - 1; i >= 0; i--) {
+            Todo todo = byId.get(added.get(i).getId());
+            if (todo != null) result.add(todo);
+        }
+        for (Todo old : todos) {
+            Todo todo = byId.get(old.getId());
+            if (todo != null) result.add(todo);
+        }
+        todos.clear();
+        todos.addAll(result);
+    }
+}
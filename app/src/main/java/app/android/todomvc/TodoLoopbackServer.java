@@ -0,0 +1,54 @@
+package app.android.todomvc;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+// A sync server that runs in the same process, standing in for a remote one.
+//
+// It keeps every replica's changes merged in a TodoReplica and answers a round
+// trip like a remote server would, with encoded batches, so several
+// TodoDatabase or TodoReplica clients can be synced through it and the bytes
+// they exchange measured. A client's own changes are not sent back to it unless
+// merging them with another client's changed them.
+public final class TodoLoopbackServer implements TodoSync.Server {
+
+    private final TodoReplica replica = new TodoReplica();
+    private long bytesReceived;
+    private long bytesSent;
+
+    @Override
+    public synchronized byte[] exchange(byte[] request) throws IOException {
+        TodoSync.Batch in = TodoCodec.decodeBatch(request);
+        HashMap<Object, TodoChange> sent = new HashMap<>();
+        for (TodoChange change : in.getChanges()) {
+            replica.merge(change, true);
+            sent.put(TodoReplica.keyOf(change), change);
+        }
+        List<TodoChange> out = replica.changesSince(in.getSeq());
+        out.removeIf(change -> isEcho(change, sent.get(TodoReplica.keyOf(change))));
+        byte[] response = TodoCodec.encodeBatch(new TodoSync.Batch(replica.getSeq(), out));
+        bytesReceived += request.length;
+        bytesSent += response.length;
+        return response;
+    }
+
+    // A delete is sent without the fields it had, so it only has to match in that.
+    private static boolean isEcho(TodoChange stored, TodoChange sent) {
+        if (sent == null) return false;
+        return stored.equals(sent)
+                || (stored.isDeleted() && sent.isDeleted() && stored.getDeletedStamp() == sent.getDeletedStamp());
+    }
+
+    public synchronized TodoReplica getReplica() {
+        return replica;
+    }
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+}
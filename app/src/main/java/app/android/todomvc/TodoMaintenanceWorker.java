@@ -0,0 +1,43 @@
+package app.android.todomvc;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import java.util.concurrent.TimeUnit;
+
+// Runs TodoRepository.maintain() about once a day, while the device is idle and
+// the battery is not low, so its cost never lands on a start or a tap.
+public class TodoMaintenanceWorker extends Worker {
+
+    private static final String WORK_NAME = "todo-maintenance";
+    private static final long INTERVAL_HOURS = 24;
+
+    public TodoMaintenanceWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    // Keeps an existing schedule, so calling this on every start costs one lookup.
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresDeviceIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                TodoMaintenanceWorker.class, INTERVAL_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        return TodoRepository.getInstance(getApplicationContext()).maintain() ? Result.success() : Result.retry();
+    }
+}
@@ -0,0 +1,188 @@
+package app.android.todomvc;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters and latency histograms for list operations, persistence and binding.
+//
+// Every metric is created once, up front, and recording only bumps atomics, so it
+// is safe from any thread and allocates nothing. Latencies go into fixed
+// power-of-two buckets from 1us to 8s; percentiles are reported as the upper bound
+// of the bucket they fall in, capped at the max. Dump with:
+//   adb shell dumpsys activity app.android.todomvc/.MainActivity
+public final class TodoMetrics {
+
+    private static final ArrayList<Metric> METRICS = new ArrayList<>();
+
+    public static final Timer LOAD = timer("storage.load");
+    public static final Timer FLUSH = timer("storage.flush");
+    public static final Counter OPS_WRITTEN = counter("storage.opsWritten");
+    // Damaged records left out when reading old formats or imports
+    public static final Counter RECORDS_SKIPPED = counter("storage.recordsSkipped");
+    public static final Timer BACKUP = timer("storage.backup");
+    public static final Timer MAINTENANCE = timer("storage.maintenance");
+    public static final Timer IMPORT = timer("transfer.import");
+    public static final Timer EXPORT = timer("transfer.export");
+    public static final Timer FILTER = timer("list.filter");
+    public static final Timer SEARCH = timer("list.search");
+    public static final Timer BIND = timer("adapter.bind");
+    public static final Timer BIND_PAYLOAD = timer("adapter.bindPayload");
+    public static final Gauge TODOS = gauge("list.todos");
+    public static final Counter REMINDER_ALARMS = counter("reminders.alarmsSet");
+    public static final Counter REMINDERS_SHOWN = counter("reminders.shown");
+    public static final Timer SYNC = timer("sync.roundTrip");
+    public static final Counter SYNC_BYTES_SENT = counter("sync.bytesSent");
+    public static final Counter SYNC_BYTES_RECEIVED = counter("sync.bytesReceived");
+    public static final Counter SYNC_CHANGES_MERGED = counter("sync.changesMerged");
+
+    // Indexed by TodoOp type
+    private static final Counter[] OPS = {
+            null,
+            counter("op.add"),
+            counter("op.toggle"),
+            counter("op.rename"),
+            counter("op.delete"),
+            counter("op.clearCompleted"),
+            counter("op.setDue"),
+            counter("op.move"),
+    };
+
+    private TodoMetrics() {}
+
+    public static void countOp(TodoOp op) {
+        OPS[op.getType()].increment();
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("Todo metrics (latencies in us)");
+        writer.println(String.format("  %-20s %10s %8s %8s %8s %8s", "name", "count", "p50", "p95", "p99", "max"));
+        for (Metric metric : METRICS) {
+            metric.dump(writer);
+        }
+        writer.flush();
+    }
+
+    private static Timer timer(String name) {
+        Timer timer = new Timer(name);
+        METRICS.add(timer);
+        return timer;
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        METRICS.add(counter);
+        return counter;
+    }
+
+    private static Gauge gauge(String name) {
+        Gauge gauge = new Gauge(name);
+        METRICS.add(gauge);
+        return gauge;
+    }
+
+    private abstract static class Metric {
+        final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        abstract void dump(PrintWriter writer);
+    }
+
+    public static final class Counter extends Metric {
+        private final AtomicLong count = new AtomicLong();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        public void increment() {
+            count.incrementAndGet();
+        }
+
+        public void add(long n) {
+            count.addAndGet(n);
+        }
+
+        @Override
+        void dump(PrintWriter writer) {
+            writer.println(String.format("  %-20s %10d", name, count.get()));
+        }
+    }
+
+    // The latest value and the largest seen, e.g. the list size.
+    public static final class Gauge extends Metric {
+        private final AtomicLong value = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Gauge(String name) {
+            super(name);
+        }
+
+        public void set(long n) {
+            value.set(n);
+            long seen;
+            while (n > (seen = max.get()) && !max.compareAndSet(seen, n)) {
+                // Retry until the max is at least n
+            }
+        }
+
+        @Override
+        void dump(PrintWriter writer) {
+            writer.println(String.format("  %-20s %10d %8s %8s %8s %8d", name, value.get(), "", "", "", max.get()));
+        }
+    }
+
+    public static final class Timer extends Metric {
+        // Bucket i holds latencies below 2^i us; the last one also takes anything longer.
+        private static final int BUCKETS = 24;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Timer(String name) {
+            super(name);
+        }
+
+        // Records the time since start, a System.nanoTime() reading.
+        public void stop(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            long seen;
+            while (micros > (seen = max.get()) && !max.compareAndSet(seen, micros)) {
+                // Retry until the max is at least micros
+            }
+        }
+
+        private long percentile(long total, double p) {
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(1L << i, max.get());
+            }
+            return max.get();
+        }
+
+        @Override
+        void dump(PrintWriter writer) {
+            long total = count.get();
+            if (total == 0) {
+                writer.println(String.format("  %-20s %10d", name, 0));
+                return;
+            }
+            writer.println(String.format("  %-20s %10d %8d %8d %8d %8d", name, total,
+                    percentile(total, 0.50), percentile(total, 0.95), percentile(total, 0.99), max.get()));
+        }
+    }
+}
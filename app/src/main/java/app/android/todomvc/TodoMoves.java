@@ -0,0 +1,61 @@
+package app.android.todomvc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Where a moved todo goes in its list.
+//
+// Orders are spaced Todo.ORDER_GAP apart as todos are added, and a moved todo
+// takes the order halfway between its new neighbours', so a move changes one
+// todo. Only once a gap has been halved down to nothing are orders respaced, and
+// then only across the smallest run of neighbours that has room for them all.
+public final class TodoMoves {
+
+    // A respaced run leaves at least this much between orders, room for ten more
+    // moves into the same gap.
+    private static final long MIN_RESPACED_GAP = 1L << 10;
+
+    private TodoMoves() {}
+
+    // The new orders that put a todo at index among the other todos of its list,
+    // rest, which are in display order: usually only the moved todo's, but after
+    // many moves into the same gap also those of the neighbours respaced to make
+    // room. Only the todos around index are read from rest. The todo must not be
+    // at index already.
+    public static List<Todo> planMove(Todo todo, int index, List<Todo> rest) {
+        if (index == 0) return Collections.singletonList(todo.withOrder(rest.get(0).getOrder() + Todo.ORDER_GAP));
+
+        long high = rest.get(index - 1).getOrder();
+        long low = index < rest.size() ? rest.get(index).getOrder() : 0;
+        if (high - low >= 2) {
+            return Collections.singletonList(todo.withOrder(low + (high - low) / 2));
+        }
+
+        // Widen the run around the gap until its orders can be spread out with room
+        // to spare. A run that reaches the top always can: it may rise above it.
+        for (int width = 1; ; width *= 2) {
+            int from = Math.max(0, index - width);
+            int to = Math.min(rest.size(), index + width);
+            int count = to - from + 1;
+            long floor = to < rest.size() ? rest.get(to).getOrder() : 0;
+            long gap;
+            long order;
+            if (from == 0) {
+                gap = Todo.ORDER_GAP;
+                order = floor + count * gap;
+            } else {
+                long ceiling = rest.get(from - 1).getOrder();
+                gap = (ceiling - floor) / (count + 1);
+                if (gap < MIN_RESPACED_GAP) continue;
+                order = ceiling - gap;
+            }
+            ArrayList<Todo> moved = new ArrayList<>();
+            for (int i = from; i <= to; i++, order -= gap) {
+                Todo next = i < index ? rest.get(i) : i == index ? todo : rest.get(i - 1);
+                if (next.getOrder() != order) moved.add(next.withOrder(order));
+            }
+            return moved;
+        }
+    }
+}
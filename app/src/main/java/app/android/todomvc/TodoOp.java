@@ -0,0 +1,81 @@
+package app.android.todomvc;
+
+// A single mutation of a todo list, as it is handed to storage.
+//
+// Todo ids are unique across lists, so only the ops that are not about one
+// existing todo, adding and clearing completed, name their list.
+public class TodoOp {
+
+    public static final int ADD = 1;
+    public static final int TOGGLE = 2;
+    public static final int RENAME = 3;
+    public static final int DELETE = 4;
+    public static final int CLEAR_COMPLETED = 5;
+    public static final int SET_DUE = 6;
+    public static final int MOVE = 7;
+
+    private final int type;
+    private final TodoId id;
+    private final String title;
+    private final boolean completed;
+    private final long order;
+    private final long listId;
+    private final long created;
+    private final long due;
+
+    private TodoOp(int type, TodoId id, String title, boolean completed, long order, long listId,
+            long created, long due) {
+        this.type = type;
+        this.id = id;
+        this.title = title;
+        this.completed = completed;
+        this.order = order;
+        this.listId = listId;
+        this.created = created;
+        this.due = due;
+    }
+
+    // Adds keep the todo's order, so a deleted todo can be put back where it was.
+    // An order of 0 puts it on top.
+    public static TodoOp add(long listId, Todo todo) {
+        return new TodoOp(ADD, todo.getId(), todo.getTitle(), todo.isCompleted(), todo.getOrder(), listId,
+                todo.getCreated(), todo.getDue());
+    }
+
+    // Toggles are logged with the resulting state so replaying them is idempotent.
+    public static TodoOp toggle(TodoId id, boolean completed) {
+        return new TodoOp(TOGGLE, id, null, completed, 0, 0, 0, 0);
+    }
+
+    public static TodoOp rename(TodoId id, String title) {
+        return new TodoOp(RENAME, id, title, false, 0, 0, 0, 0);
+    }
+
+    public static TodoOp delete(TodoId id) {
+        return new TodoOp(DELETE, id, null, false, 0, 0, 0, 0);
+    }
+
+    public static TodoOp clearCompleted(long listId) {
+        return new TodoOp(CLEAR_COMPLETED, null, null, false, 0, listId, 0, 0);
+    }
+
+    // A due time of 0 removes it.
+    public static TodoOp setDue(TodoId id, long due) {
+        return new TodoOp(SET_DUE, id, null, false, 0, 0, 0, due);
+    }
+
+    // Gives a todo a new order, i.e. a new place in its list.
+    public static TodoOp move(TodoId id, long order) {
+        return new TodoOp(MOVE, id, null, false, order, 0, 0, 0);
+    }
+
+    // Getters
+    public int getType() { return type; }
+    public TodoId getId() { return id; }
+    public String getTitle() { return title; }
+    public boolean isCompleted() { return completed; }
+    public long getOrder() { return order; }
+    public long getListId() { return listId; }
+    public long getCreated() { return created; }
+    public long getDue() { return due; }
+}
@@ -0,0 +1,282 @@
+package app.android.todomvc;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps a bounded window of a TodoPagingSource resident for an adapter.
+//
+// The adapter reports the full size of the source, but only up to MAX_RESIDENT
+// rows around the visible range are loaded; anything else binds as a placeholder
+// until its page arrives. Pages are loaded on a background thread, biased ahead
+// of the scroll direction. A new source is diffed against the old one only within
+// the window, so an update costs the same however long the list is. Its window is
+// loaded and diffed on the background thread too, and the adapter goes on showing
+// the old source until the result is dispatched.
+public class TodoPager {
+
+    public static final int PAGE_SIZE = 50;
+    private static final int MAX_RESIDENT = 4 * PAGE_SIZE;
+    private static final int PREFETCH_DISTANCE = 2 * PAGE_SIZE;
+
+    // Shared by all pagers, so recreating the activity does not leak threads.
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "todo-pager");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RecyclerView.Adapter<?> adapter;
+    private final DiffUtil.ItemCallback<Todo> itemCallback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private TodoPagingSource source = TodoCollection.empty(false);
+    private int windowStart;
+    private List<Todo> window = Collections.emptyList();
+    // Bumped by every new source or load request; stale loads are dropped.
+    private int generation;
+    private int pendingStart = -1;
+    // Bumped by every submit; read on the loader thread to skip superseded ones.
+    private volatile int submitted;
+    private boolean submitting;
+    // The last visible range, to load once a submit is in
+    private int visibleFirst = -1;
+    private int visibleLast = -1;
+    private boolean visibleForward = true;
+
+    public TodoPager(RecyclerView.Adapter<?> adapter, DiffUtil.ItemCallback<Todo> itemCallback) {
+        this.adapter = adapter;
+        this.itemCallback = itemCallback;
+    }
+
+    public int size() {
+        return source.size();
+    }
+
+    // Returns the todo at the position, or null if its page is not loaded yet.
+    public Todo get(int position) {
+        int index = position - windowStart;
+        if (index >= 0 && index < window.size()) {
+            return window.get(index);
+        }
+        onVisibleRangeChanged(position, position, true);
+        return null;
+    }
+
+    // Shows the source once its window has been loaded and diffed, then runs shown,
+    // if given, on the main thread. A source submitted while the previous one is on
+    // its way replaces it.
+    public void submit(TodoPagingSource newSource, Runnable shown) {
+        int requested = ++submitted;
+        submitting = true;
+        // Pages of the old source still loading would move the window.
+        generation++;
+        pendingStart = -1;
+        int oldSize = source.size();
+        int oldStart = windowStart;
+        List<Todo> oldWindow = window;
+        LOADER.execute(() -> {
+            if (requested != submitted) return;
+            int newSize = newSource.size();
+            if (oldStart > 0 && oldStart >= newSize) {
+                // The list shrank past the window; start over at the end of it.
+                int newStart = Math.max(0, newSize - MAX_RESIDENT);
+                List<Todo> newWindow = newSource.load(newStart, newSize - newStart);
+                mainHandler.post(() -> {
+                    if (!canShow(requested, newSource, oldStart, oldWindow, shown)) return;
+                    show(newSource, newStart, newWindow);
+                    adapter.notifyDataSetChanged();
+                    onShown(shown);
+                });
+                return;
+            }
+
+            int count = Math.min(Math.max(oldWindow.size(), PREFETCH_DISTANCE), newSize - oldStart);
+            List<Todo> newWindow = newSource.load(oldStart, count);
+            // The window holds at most MAX_RESIDENT rows, so this diff stays cheap.
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new WindowDiff(oldWindow, newWindow), false);
+            mainHandler.post(() -> {
+                if (!canShow(requested, newSource, oldStart, oldWindow, shown)) return;
+                show(newSource, oldStart, newWindow);
+                diff.dispatchUpdatesTo(new OffsetCallback(oldStart));
+
+                // Rows past the window are placeholders; only their number changes.
+                int tailStart = oldStart + newWindow.size();
+                int tailDelta = newSize - (oldSize - oldWindow.size() + newWindow.size());
+                if (tailDelta > 0) {
+                    adapter.notifyItemRangeInserted(tailStart, tailDelta);
+                } else if (tailDelta < 0) {
+                    adapter.notifyItemRangeRemoved(tailStart, -tailDelta);
+                }
+                onShown(shown);
+            });
+        });
+    }
+
+    // False if the result is stale: a later source was submitted, or the window
+    // was moved since it was loaded, in which case the source is submitted again.
+    private boolean canShow(int requested, TodoPagingSource newSource, int oldStart, List<Todo> oldWindow,
+            Runnable shown) {
+        if (requested != submitted) return false;
+        if (windowStart != oldStart || window != oldWindow) {
+            submit(newSource, shown);
+            return false;
+        }
+        return true;
+    }
+
+    private void show(TodoPagingSource newSource, int start, List<Todo> newWindow) {
+        source = newSource;
+        windowStart = start;
+        window = newWindow;
+        submitting = false;
+        generation++;
+        pendingStart = -1;
+    }
+
+    private void onShown(Runnable shown) {
+        // Rows scrolled to meanwhile are placeholders still.
+        if (visibleFirst >= 0) onVisibleRangeChanged(visibleFirst, visibleLast, visibleForward);
+        if (shown != null) shown.run();
+    }
+
+    // Moves a resident row ahead of the source, e.g. while it is dragged; the source
+    // that reflects the move is diffed against this window, so it causes no second
+    // move. Returns false if either position is not resident.
+    public boolean move(int from, int to) {
+        int fromIndex = from - windowStart;
+        int toIndex = to - windowStart;
+        if (fromIndex < 0 || fromIndex >= window.size() || toIndex < 0 || toIndex >= window.size()) return false;
+        ArrayList<Todo> moved = new ArrayList<>(window);
+        moved.add(toIndex, moved.remove(fromIndex));
+        window = moved;
+        // A page still loading from the source would put the row back.
+        generation++;
+        pendingStart = -1;
+        adapter.notifyItemMoved(from, to);
+        return true;
+    }
+
+    // Moves the window when the visible rows get close to its edge. Not while a
+    // submit is on its way, as that would move the window from under it.
+    public void onVisibleRangeChanged(int first, int last, boolean forward) {
+        visibleFirst = first;
+        visibleLast = last;
+        visibleForward = forward;
+        int size = source.size();
+        if (first < 0 || size == 0 || submitting) return;
+
+        int wantedStart = Math.max(0, first - (forward ? PAGE_SIZE : PREFETCH_DISTANCE));
+        int wantedEnd = Math.min(size, last + 1 + (forward ? PREFETCH_DISTANCE : PAGE_SIZE));
+        if (wantedStart >= windowStart && wantedEnd <= windowStart + window.size()) return;
+
+        int start;
+        if (forward) {
+            start = Math.max(0, Math.min(wantedStart, size - MAX_RESIDENT));
+        } else {
+            start = Math.max(0, wantedEnd - MAX_RESIDENT);
+        }
+        if (start == pendingStart) return;
+        load(start, Math.min(MAX_RESIDENT, size - start));
+    }
+
+    private void load(int start, int count) {
+        int requested = ++generation;
+        TodoPagingSource requestedSource = source;
+        pendingStart = start;
+        LOADER.execute(() -> {
+            List<Todo> items = requestedSource.load(start, count);
+            mainHandler.post(() -> {
+                if (requested != generation) return;
+                int oldStart = windowStart;
+                int oldEnd = windowStart + window.size();
+                windowStart = start;
+                window = items;
+                pendingStart = -1;
+                // Rows that just became resident were bound as placeholders. A source
+                // read from the database may return fewer than asked for, if the
+                // list shrank since; the rest stay placeholders until the next one.
+                int end = start + items.size();
+                notifyChanged(start, Math.min(end, oldStart));
+                notifyChanged(Math.max(start, oldEnd), end);
+            });
+        });
+    }
+
+    private void notifyChanged(int from, int to) {
+        if (to > from) {
+            adapter.notifyItemRangeChanged(from, to - from);
+        }
+    }
+
+    private class WindowDiff extends DiffUtil.Callback {
+        private final List<Todo> oldWindow;
+        private final List<Todo> newWindow;
+
+        WindowDiff(List<Todo> oldWindow, List<Todo> newWindow) {
+            this.oldWindow = oldWindow;
+            this.newWindow = newWindow;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldWindow.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newWindow.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return itemCallback.areItemsTheSame(oldWindow.get(oldPosition), newWindow.get(newPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return itemCallback.areContentsTheSame(oldWindow.get(oldPosition), newWindow.get(newPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldPosition, int newPosition) {
+            return itemCallback.getChangePayload(oldWindow.get(oldPosition), newWindow.get(newPosition));
+        }
+    }
+
+    // Maps positions inside the window to adapter positions.
+    private class OffsetCallback implements ListUpdateCallback {
+        private final int offset;
+
+        OffsetCallback(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            adapter.notifyItemRangeInserted(offset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            adapter.notifyItemRangeRemoved(offset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            adapter.notifyItemMoved(offset + fromPosition, offset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            adapter.notifyItemRangeChanged(offset + position, count, payload);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package app.android.todomvc;
+
+import java.util.List;
+
+// A read-only, already filtered list of todos that can be loaded a window at a time.
+public interface TodoPagingSource {
+
+    int size();
+
+    // Returns the todos at positions [start, start + count).
+    List<Todo> load(int start, int count);
+}
@@ -0,0 +1,23 @@
+package app.android.todomvc;
+
+import java.util.List;
+
+// One list with all of its todos in display order, as moved in bulk by backups
+// and imports.
+public final class TodoPartition {
+
+    private final long listId;
+    private final String name;
+    private final List<Todo> todos;
+
+    public TodoPartition(long listId, String name, List<Todo> todos) {
+        this.listId = listId;
+        this.name = name;
+        this.todos = todos;
+    }
+
+    // Getters
+    public long getListId() { return listId; }
+    public String getName() { return name; }
+    public List<Todo> getTodos() { return todos; }
+}
@@ -0,0 +1,120 @@
+package app.android.todomvc;
+
+import java.util.List;
+
+// Which todos of a list to show: every criterion that is set must hold.
+//
+// The status, a range of due times and a range of creation times are each a
+// range of one of TodoDatabase's indexes, so a query without words is counted and
+// paged there without reading any other row. Words are matched by TodoSearch,
+// where they and the status are bitmaps, and only the todos left are checked
+// against the time ranges. The views of TodoFilter are presets of it; queries
+// are immutable, and each with method returns a new one.
+public final class TodoQuery {
+
+    public enum Status {
+        ANY,
+        ACTIVE,
+        COMPLETED
+    }
+
+    public static final TodoQuery ALL = new TodoQuery(Status.ANY, 0, 0, 0, 0, "");
+
+    private final Status status;
+    // Ranges include from and exclude to; 0 leaves that end open. A todo without a
+    // due time is in no due range.
+    private final long dueFrom;
+    private final long dueTo;
+    private final long createdFrom;
+    private final long createdTo;
+    // Every word must start a word of the title; empty for none.
+    private final String words;
+
+    private TodoQuery(Status status, long dueFrom, long dueTo, long createdFrom, long createdTo, String words) {
+        this.status = status;
+        this.dueFrom = dueFrom;
+        this.dueTo = dueTo;
+        this.createdFrom = createdFrom;
+        this.createdTo = createdTo;
+        this.words = words;
+    }
+
+    public TodoQuery withStatus(Status status) {
+        return new TodoQuery(status, dueFrom, dueTo, createdFrom, createdTo, words);
+    }
+
+    // Todos due from from up to but not including to. Either may be 0 for no limit,
+    // so withDue(1, 0) holds every todo with a due time, and withDue(0, 0) drops
+    // the range.
+    public TodoQuery withDue(long from, long to) {
+        return new TodoQuery(status, from, to, createdFrom, createdTo, words);
+    }
+
+    public TodoQuery withCreated(long from, long to) {
+        return new TodoQuery(status, dueFrom, dueTo, from, to, words);
+    }
+
+    public TodoQuery withWords(String words) {
+        return new TodoQuery(status, dueFrom, dueTo, createdFrom, createdTo, words == null ? "" : words.trim());
+    }
+
+    public boolean hasDueRange() {
+        return dueFrom != 0 || dueTo != 0;
+    }
+
+    public boolean hasCreatedRange() {
+        return createdFrom != 0 || createdTo != 0;
+    }
+
+    public boolean hasWords() {
+        return !words.isEmpty();
+    }
+
+    public boolean matches(Todo todo) {
+        return matchesStatus(todo) && matchesRanges(todo) && matchesWords(todo);
+    }
+
+    public boolean matchesStatus(Todo todo) {
+        switch (status) {
+            case ACTIVE:
+                return !todo.isCompleted();
+            case COMPLETED:
+                return todo.isCompleted();
+            default:
+                return true;
+        }
+    }
+
+    public boolean matchesRanges(Todo todo) {
+        if (hasDueRange() && (!todo.hasDue() || !inRange(todo.getDue(), dueFrom, dueTo))) return false;
+        return !hasCreatedRange() || inRange(todo.getCreated(), createdFrom, createdTo);
+    }
+
+    // Slow next to TodoSearch, which has the title words indexed.
+    private boolean matchesWords(Todo todo) {
+        if (words.isEmpty()) return true;
+        List<String> title = TodoSearch.tokenize(todo.getTitle());
+        for (String prefix : TodoSearch.tokenize(words)) {
+            boolean found = false;
+            for (String word : title) {
+                if (word.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private static boolean inRange(long time, long from, long to) {
+        return time >= from && (to == 0 || time < to);
+    }
+
+    public Status getStatus() { return status; }
+    public long getDueFrom() { return dueFrom; }
+    public long getDueTo() { return dueTo; }
+    public long getCreatedFrom() { return createdFrom; }
+    public long getCreatedTo() { return createdTo; }
+    public String getWords() { return words; }
+}
@@ -0,0 +1,100 @@
+package app.android.todomvc;
+
+import android.Manifest;
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.text.format.DateUtils;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
+import java.util.List;
+
+// Shows a notification for each todo as it falls due.
+//
+// Only one alarm is ever registered with the system: TodoRepository sets it for
+// the earliest due time of an active todo in any list, read from the database's
+// due index, whenever a write may have moved it. When it goes off, the todos that
+// have fallen due since the last one are shown and the next alarm is set. Alarms
+// are lost on reboot, so the same happens on boot.
+public class TodoReminderReceiver extends BroadcastReceiver {
+
+    private static final String ACTION_REMIND = "app.android.todomvc.action.REMIND";
+    private static final String CHANNEL_ID = "reminders";
+    // Past this many todos due at once, one notification sums them up.
+    private static final int MAX_NOTIFICATIONS = 5;
+    private static final int SUMMARY_NOTIFICATION_ID = 0;
+
+    // Replaces the alarm set before, if any. A time of 0 cancels it.
+    public static void schedule(Context context, long at) {
+        AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, TodoReminderReceiver.class).setAction(ACTION_REMIND);
+        PendingIntent pending = PendingIntent.getBroadcast(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        if (at == 0) {
+            alarms.cancel(pending);
+        } else {
+            // Not exact, which needs a permission, but allowed to wake the device
+            // from doze, within minutes of the due time.
+            alarms.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pending);
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (!ACTION_REMIND.equals(action) && !Intent.ACTION_BOOT_COMPLETED.equals(action)) return;
+        // The database is read on the repository's writer thread.
+        PendingResult result = goAsync();
+        TodoRepository.getInstance(context).remind(result::finish);
+    }
+
+    // Called on the writer thread with the todos that have just fallen due.
+    static void notify(Context context, List<Todo> todos) {
+        if (todos.isEmpty()) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS)
+                        != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        NotificationManagerCompat notifications = NotificationManagerCompat.from(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notifications.createNotificationChannel(new NotificationChannel(
+                    CHANNEL_ID, "Reminders", NotificationManager.IMPORTANCE_HIGH));
+        }
+        PendingIntent open = PendingIntent.getActivity(context, 0, new Intent(context, MainActivity.class),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        if (todos.size() > MAX_NOTIFICATIONS) {
+            String text = context.getResources().getQuantityString(R.plurals.todos_due, todos.size(), todos.size());
+            notifications.notify(SUMMARY_NOTIFICATION_ID, build(context, open, text, null));
+        } else {
+            for (Todo todo : todos) {
+                String due = context.getString(R.string.due,
+                        DateUtils.formatDateTime(context, todo.getDue(), DateUtils.FORMAT_SHOW_TIME));
+                // One notification per todo; a reminder for it again replaces it.
+                notifications.notify(todo.getId().hashCode(), build(context, open, todo.getTitle(), due));
+            }
+        }
+        TodoMetrics.REMINDERS_SHOWN.add(todos.size());
+    }
+
+    private static Notification build(Context context, PendingIntent open, String title, String text) {
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_filter_today)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setContentIntent(open)
+                .setAutoCancel(true)
+                .setCategory(NotificationCompat.CATEGORY_REMINDER)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .build();
+    }
+}
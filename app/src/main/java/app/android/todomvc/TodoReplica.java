@@ -0,0 +1,84 @@
+package app.android.todomvc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+// Every todo and list of a sync replica in memory, deleted ones included, with
+// the sequence number of the last change to each.
+//
+// It holds the server's state in TodoLoopbackServer, and stands in for a device
+// in benchmarks, where the database is not available. Changes since a sequence
+// number are a range of a tree keyed by it, so a delta costs what it holds, not
+// what the replica holds. Not thread-safe.
+public final class TodoReplica {
+
+    private final HashMap<Object, TodoChange> changes = new HashMap<>();
+    private final HashMap<Object, Long> seqs = new HashMap<>();
+    private final TreeMap<Long, Object> bySeq = new TreeMap<>();
+    private long seq;
+    // As a device: its own changes sent so far, and the server's it has
+    private long pushedSeq;
+    private long serverSeq;
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public TodoChange get(Object key) {
+        return changes.get(key);
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    // Todos are keyed by their id and lists by theirs.
+    public static Object keyOf(TodoChange change) {
+        return change.isList() ? (Object) change.getListId() : change.getId();
+    }
+
+    // Merges a change and returns the result. A local one, or any on a server,
+    // gets the next sequence number if it changed anything; one from the server
+    // keeps whatever it had, so it is not sent back.
+    public TodoChange merge(TodoChange change, boolean local) {
+        Object key = keyOf(change);
+        TodoChange old = changes.get(key);
+        TodoChange merged = old != null ? TodoChange.merge(old, change) : change;
+        if (merged.equals(old)) return old;
+        changes.put(key, merged);
+        if (local) {
+            Long oldSeq = seqs.put(key, ++seq);
+            if (oldSeq != null) bySeq.remove(oldSeq);
+            bySeq.put(seq, key);
+        }
+        return merged;
+    }
+
+    // One round trip as a device, like TodoDatabase.sync(). Returns the changes
+    // merged from the server.
+    public int sync(TodoSync.Server server) throws IOException {
+        long upTo = seq;
+        TodoSync.Batch remote = TodoSync.exchange(server, serverSeq, changesSince(pushedSeq));
+        for (TodoChange change : remote.getChanges()) {
+            merge(change, false);
+        }
+        pushedSeq = upTo;
+        serverSeq = remote.getSeq();
+        return remote.getChanges().size();
+    }
+
+    // Everything changed after the given sequence number, lists first.
+    public List<TodoChange> changesSince(long after) {
+        ArrayList<TodoChange> lists = new ArrayList<>();
+        ArrayList<TodoChange> todos = new ArrayList<>();
+        for (Object key : bySeq.tailMap(after, false).values()) {
+            TodoChange change = changes.get(key);
+            (change.isList() ? lists : todos).add(change);
+        }
+        lists.addAll(todos);
+        return lists;
+    }
+}
@@ -0,0 +1,580 @@
+package app.android.todomvc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.SQLException;
+import android.os.Trace;
+import android.util.Log;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Owns all disk access for the todo lists.
+//
+// Everything runs on one writer thread, so reads and writes never race. Mutations
+// are queued and flushed together after a short delay, or by the next read, which
+// turns a burst of taps into a single transaction; every read sees every change
+// queued before it. The list views are queried from the database's indexes a page
+// at a time; no list is read whole except for search, export and the backup. A
+// batch that fails to write stays queued ahead of anything newer and is retried,
+// waiting twice as long after each failure, and the SaveListener hears when saving
+// starts and stops failing. A checkpoint flushes at once and, if anything was
+// written since, refreshes the TodoBackup the database is rebuilt from should it be
+// lost. After a write that may have moved the next due time, the one reminder alarm
+// is set again from the database's due index. Once a sync server has been set,
+// sync() makes a round trip with it on the same thread, see TodoDatabase.sync();
+// setting none turns sync off again. There is one instance per process, shared by
+// the ViewModel, TodoMaintenanceWorker and TodoReminderReceiver, so maintenance and
+// reminders queue behind writes.
+public class TodoRepository {
+
+    private static final String TAG = "TodoRepository";
+    private static final String PREFS_NAME = "todo_prefs";
+    private static final String TODOS_KEY = "todos_list";
+    private static final String CURRENT_LIST_KEY = "current_list";
+    // Todos due up to this time have been reminded of
+    private static final String REMINDED_UNTIL_KEY = "reminded_until";
+    private static final String SYNC_URL_KEY = "sync_url";
+    private static final long FLUSH_DELAY_MS = 250;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+
+    public interface QueryCallback {
+        // Called on the writer thread.
+        void onQueried(TodoSnapshot snapshot);
+    }
+
+    public interface LoadCallback {
+        // Called on the writer thread.
+        void onLoaded(ArrayList<Todo> todos);
+    }
+
+    public interface ListsCallback {
+        // Called on the writer thread.
+        void onLists(ArrayList<TodoList> lists);
+    }
+
+    public interface AppliedCallback {
+        // Called on the writer thread once the change has been written, with what
+        // it did.
+        void onApplied(TodoDatabase.Applied applied);
+    }
+
+    public interface SyncCallback {
+        // Called on the writer thread with what the round trip merged, or null if it
+        // failed, in which case the next sync sends the same changes again.
+        void onSynced(TodoDatabase.Merged merged);
+    }
+
+    public interface SaveListener {
+        // Called on the writer thread when a flush fails after the last one
+        // succeeded, and again, with false, once one succeeds.
+        void onSaveFailing(boolean failing);
+    }
+
+    private static TodoRepository instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final TodoLog todoLog;
+    private final TodoDatabase database;
+    private final TodoBackup backup;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "todo-writer"));
+
+    // A queued change. ops holds its ops if they are known up front.
+    private static final class Change {
+        final TodoDatabase.Plan plan;
+        final List<TodoOp> ops;
+        final AppliedCallback callback;
+
+        Change(TodoDatabase.Plan plan, List<TodoOp> ops, AppliedCallback callback) {
+            this.plan = plan;
+            this.ops = ops;
+            this.callback = callback;
+        }
+    }
+
+    // Guards the pending changes and the scheduled flush.
+    private final Object lock = new Object();
+    private ArrayList<Change> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    // Only touched on the writer thread.
+    private boolean opened;
+    private boolean backupStale;
+    // Flushes that have failed in a row
+    private int flushFailures;
+    private volatile SaveListener saveListener;
+    // Null while sync is off
+    private volatile TodoSync.Server syncServer;
+    // The time the reminder alarm is set for, 0 for none, or -1 if unknown
+    private long alarmAt = -1;
+
+    public static synchronized TodoRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new TodoRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TodoRepository(Context context) {
+        this.context = context;
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        todoLog = new TodoLog(context.getFilesDir());
+        backup = new TodoBackup(context.getFilesDir());
+        database = new TodoDatabase(context, this::readLegacyLists);
+        try {
+            syncServer = serverAt(getSyncUrl());
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Bad sync server URL", e);
+        }
+    }
+
+    public void setSaveListener(SaveListener listener) {
+        saveListener = listener;
+    }
+
+    // The list that was open last.
+    public long getCurrentListId() {
+        return prefs.getLong(CURRENT_LIST_KEY, TodoList.DEFAULT_ID);
+    }
+
+    public void setCurrentListId(long listId) {
+        prefs.edit().putLong(CURRENT_LIST_KEY, listId).apply();
+    }
+
+    // Reads what the query, which must not have words, holds of a list, with the
+    // list's counts, after writing out anything queued. Only the first rows are read; the snapshot reads the
+    // others when they are loaded, which blocks the thread that loads them.
+    public void query(long listId, TodoQuery query, QueryCallback callback) {
+        writer.execute(() -> {
+            long start = System.nanoTime();
+            Trace.beginSection("TodoRepository.query");
+            try {
+                // Opening the database the first time also imports the old list.
+                flush();
+                long now = System.currentTimeMillis();
+                int active = database.count(listId, TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE));
+                int completed = database.count(listId, TodoQuery.ALL.withStatus(TodoQuery.Status.COMPLETED));
+                int size;
+                if (query.hasDueRange() || query.hasCreatedRange()) {
+                    size = database.count(listId, query);
+                } else if (query.getStatus() == TodoQuery.Status.ACTIVE) {
+                    size = active;
+                } else if (query.getStatus() == TodoQuery.Status.COMPLETED) {
+                    size = completed;
+                } else {
+                    size = active + completed;
+                }
+                long nextDue = query.hasDueRange() ? database.readNextDue(listId, now) : 0;
+                ArrayList<Todo> first = database.readPage(listId, query, 0, TodoSnapshot.FIRST_ROWS);
+                TodoMetrics.LOAD.stop(start);
+                callback.onQueried(new TodoSnapshot(size, active, completed, nextDue, first,
+                        (from, count) -> readPage(listId, query, from, count)));
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to read todos", e);
+            } finally {
+                Trace.endSection();
+            }
+            if (!opened) open();
+        });
+    }
+
+    // Blocks until the page is read. Never called on the writer thread itself.
+    private List<Todo> readPage(long listId, TodoQuery query, int start, int count) {
+        Future<ArrayList<Todo>> page = writer.submit(() -> database.readPage(listId, query, start, count));
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to read todos", e.getCause());
+        } catch (InterruptedException e) {
+            page.cancel(false);
+            Thread.currentThread().interrupt();
+        }
+        return Collections.emptyList();
+    }
+
+    // What the first query leaves for after its rows have been handed over.
+    private void open() {
+        opened = true;
+        if (database.wasImported()) {
+            deleteLegacyTodos();
+        }
+        backupStale = !backup.exists();
+        // Off the startup path, and a no-op once scheduled
+        TodoMaintenanceWorker.schedule(context);
+        if (!prefs.contains(REMINDED_UNTIL_KEY)) {
+            prefs.edit().putLong(REMINDED_UNTIL_KEY, System.currentTimeMillis()).apply();
+        }
+        updateReminder();
+    }
+
+    // Reads all todos of a list in display order, after writing out anything queued,
+    // e.g. to index them for search.
+    public void readAll(long listId, LoadCallback callback) {
+        writer.execute(() -> {
+            flush();
+            try {
+                callback.onLoaded(database.readAll(listId));
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to read todos", e);
+            }
+        });
+    }
+
+    // The same, blocking until read, e.g. for an export. Not for the main thread.
+    public ArrayList<Todo> readAll(long listId) throws IOException {
+        Future<ArrayList<Todo>> read = writer.submit(() -> {
+            flush();
+            return database.readAll(listId);
+        });
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read todos", e.getCause());
+        } catch (InterruptedException e) {
+            read.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Read cancelled");
+        }
+    }
+
+    // Reads every list with its counts, after writing out anything queued so the
+    // counts are current.
+    public void loadLists(ListsCallback callback) {
+        writer.execute(() -> {
+            flush();
+            try {
+                callback.onLists(database.readLists());
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to load lists", e);
+            }
+        });
+    }
+
+    public void createList(long listId, String name) {
+        writer.execute(() -> {
+            try {
+                database.createList(listId, name);
+                backupStale = true;
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to create list", e);
+            }
+        });
+    }
+
+    // Queued ops are written out first, so none of them can land in the list after
+    // it has been deleted. Should that fail, the queued adds to it are dropped.
+    public void deleteList(long listId) {
+        writer.execute(() -> {
+            if (!flush()) dropPending(listId);
+            try {
+                database.deleteList(listId);
+                backupStale = true;
+                updateReminder();
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to delete list", e);
+            }
+        });
+    }
+
+    public void save(List<TodoOp> ops) {
+        queue(new Change(database -> ops, ops, null));
+    }
+
+    // Queues a change whose ops are worked out from what is stored when it is
+    // written, see TodoDatabase.Plan. The callback, if given, hears what it did.
+    public void change(TodoDatabase.Plan plan, AppliedCallback callback) {
+        queue(new Change(plan, null, callback));
+    }
+
+    // As save(), with a callback.
+    public void save(List<TodoOp> ops, AppliedCallback callback) {
+        queue(new Change(database -> ops, ops, callback));
+    }
+
+    private void queue(Change change) {
+        synchronized (lock) {
+            pending.add(change);
+            if (scheduledFlush == null) {
+                scheduledFlush = writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // The URL of the sync server, or "" while sync is off.
+    public String getSyncUrl() {
+        return prefs.getString(SYNC_URL_KEY, "");
+    }
+
+    // Turns sync on with the server at the URL, or off if it is empty. Deletes are
+    // recorded either way, so none made meanwhile is lost by turning it back on.
+    public void setSyncUrl(String url) throws MalformedURLException {
+        TodoSync.Server server = serverAt(url);
+        prefs.edit().putString(SYNC_URL_KEY, url).apply();
+        syncServer = server;
+    }
+
+    public boolean isSyncEnabled() {
+        return syncServer != null;
+    }
+
+    private static TodoSync.Server serverAt(String url) throws MalformedURLException {
+        return url.isEmpty() ? null : new TodoHttpServer(url);
+    }
+
+    // Writes out anything queued, then sends what has changed here since the last
+    // sync to the sync server and merges what changed elsewhere. Does nothing while
+    // sync is off.
+    public void sync(SyncCallback callback) {
+        TodoSync.Server server = syncServer;
+        if (server == null) return;
+        writer.execute(() -> {
+            long start = System.nanoTime();
+            flush();
+            TodoDatabase.Merged merged;
+            try {
+                merged = database.sync(server);
+            } catch (IOException | SQLException e) {
+                Log.w(TAG, "Failed to sync", e);
+                callback.onSynced(null);
+                return;
+            }
+            TodoMetrics.SYNC.stop(start);
+            if (!merged.getOps().isEmpty() || merged.isListsChanged()) {
+                backupStale = true;
+                updateReminder();
+            }
+            callback.onSynced(merged);
+        });
+    }
+
+    // Writes out anything queued without waiting for the delay, then refreshes the
+    // backup if the stored lists have changed since it was written.
+    public void checkpoint() {
+        writer.execute(() -> {
+            flush();
+            writeBackup();
+        });
+    }
+
+    // Does the housekeeping that would otherwise fall on a later start or write:
+    // see TodoDatabase.maintain(). Also brings the backup up to date, so it need
+    // not be written when the app next goes into the background. Blocks until
+    // done; returns false if it failed.
+    public boolean maintain() {
+        Future<?> done = writer.submit(() -> {
+            long start = System.nanoTime();
+            flush();
+            database.maintain();
+            writeBackup();
+            TodoMetrics.MAINTENANCE.stop(start);
+        });
+        try {
+            done.get();
+            return true;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to maintain todos", e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            done.cancel(false);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Shows the todos that have fallen due since the last time, then sets the alarm
+    // for the next one. Calls done on the writer thread once finished.
+    public void remind(Runnable done) {
+        writer.execute(() -> {
+            try {
+                flush();
+                long now = System.currentTimeMillis();
+                long from = prefs.getLong(REMINDED_UNTIL_KEY, now);
+                TodoReminderReceiver.notify(context, database.readDue(from, now));
+                prefs.edit().putLong(REMINDED_UNTIL_KEY, now).apply();
+                // Whatever alarm brought us here has gone off.
+                alarmAt = -1;
+                updateReminder();
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to show reminders", e);
+            } finally {
+                done.run();
+            }
+        });
+    }
+
+    // Sets the alarm for the next todo to fall due, unless it is set for that time
+    // already. One index lookup; no todos are read.
+    private void updateReminder() {
+        try {
+            long next = database.readNextDue(System.currentTimeMillis());
+            if (next == alarmAt) return;
+            TodoReminderReceiver.schedule(context, next);
+            alarmAt = next;
+            TodoMetrics.REMINDER_ALARMS.increment();
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to set the reminder", e);
+        }
+    }
+
+    // Only adding a todo with a due time, changing one, completing, reopening or
+    // deleting one can change which todo falls due next.
+    private static boolean mayMoveReminder(List<TodoOp> ops) {
+        for (TodoOp op : ops) {
+            switch (op.getType()) {
+                case TodoOp.ADD:
+                    if (op.getDue() != 0) return true;
+                    break;
+                case TodoOp.TOGGLE:
+                case TodoOp.DELETE:
+                case TodoOp.SET_DUE:
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeBackup() {
+        if (!backupStale) return;
+        long start = System.nanoTime();
+        try {
+            backup.write(database.readPartitions());
+            backupStale = false;
+        } catch (IOException | SQLException e) {
+            Log.e(TAG, "Failed to back up todos", e);
+        }
+        TodoMetrics.BACKUP.stop(start);
+    }
+
+    // Returns false if the queued changes could not be written, and are queued
+    // still.
+    private boolean flush() {
+        ArrayList<Change> changes;
+        synchronized (lock) {
+            changes = pending;
+            pending = new ArrayList<>();
+            // When called directly, this flush does what the scheduled one would have.
+            if (scheduledFlush != null) scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (changes.isEmpty()) return true;
+        long start = System.nanoTime();
+        ArrayList<TodoDatabase.Plan> plans = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            plans.add(change.plan);
+        }
+        ArrayList<TodoDatabase.Applied> results;
+        try {
+            results = database.applyPlans(plans);
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to save todos", e);
+            TodoMetrics.FLUSH.stop(start);
+            retry(changes);
+            return false;
+        }
+        backupStale = true;
+        TodoMetrics.FLUSH.stop(start);
+        if (flushFailures > 0) {
+            flushFailures = 0;
+            notifySaveFailing(false);
+        }
+        boolean moveReminder = false;
+        for (int i = 0; i < results.size(); i++) {
+            TodoDatabase.Applied applied = results.get(i);
+            TodoMetrics.OPS_WRITTEN.add(applied.getOps().size());
+            for (TodoOp op : applied.getOps()) {
+                TodoMetrics.countOp(op);
+            }
+            moveReminder |= mayMoveReminder(applied.getOps());
+            AppliedCallback callback = changes.get(i).callback;
+            if (callback != null) callback.onApplied(applied);
+        }
+        if (moveReminder) updateReminder();
+        return true;
+    }
+
+    // Puts a batch that failed back in front of whatever was queued since, and
+    // tries again later. The apply rolled back, so the whole batch goes again.
+    private void retry(ArrayList<Change> changes) {
+        flushFailures++;
+        long delay = Math.min(FLUSH_DELAY_MS << Math.min(flushFailures, 16), MAX_RETRY_DELAY_MS);
+        synchronized (lock) {
+            changes.addAll(pending);
+            pending = changes;
+            // Replaces any flush save() scheduled meanwhile, which would not wait.
+            if (scheduledFlush != null) scheduledFlush.cancel(false);
+            scheduledFlush = writer.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+        if (flushFailures == 1) notifySaveFailing(true);
+    }
+
+    // Plans only toggle and move todos that exist, so only ops known up front can
+    // add to the list.
+    private void dropPending(long listId) {
+        synchronized (lock) {
+            ArrayList<Change> kept = new ArrayList<>(pending.size());
+            for (Change change : pending) {
+                if (change.ops == null) {
+                    kept.add(change);
+                    continue;
+                }
+                ArrayList<TodoOp> ops = new ArrayList<>(change.ops.size());
+                for (TodoOp op : change.ops) {
+                    boolean inList = op.getType() == TodoOp.ADD || op.getType() == TodoOp.CLEAR_COMPLETED;
+                    if (!inList || op.getListId() != listId) ops.add(op);
+                }
+                kept.add(new Change(database -> ops, ops, change.callback));
+            }
+            pending = kept;
+        }
+    }
+
+    private void notifySaveFailing(boolean failing) {
+        SaveListener listener = saveListener;
+        if (listener != null) listener.onSaveFailing(failing);
+    }
+
+    // The lists to fill a newly created database with: the backup, if the database
+    // is being rebuilt, otherwise the single list older versions left, in an
+    // operation log or before that one JSON string in SharedPreferences.
+    private List<TodoPartition> readLegacyLists() throws IOException {
+        if (backup.exists()) {
+            return backup.read();
+        }
+        return Collections.singletonList(
+                new TodoPartition(TodoList.DEFAULT_ID, TodoList.DEFAULT_NAME, readLegacyTodos()));
+    }
+
+    private List<Todo> readLegacyTodos() throws IOException {
+        if (todoLog.exists()) {
+            return todoLog.load();
+        }
+        Trace.beginSection("TodoRepository.readPrefs");
+        String json = prefs.getString(TODOS_KEY, null);
+        Trace.endSection();
+        if (json == null) {
+            return new ArrayList<>();
+        }
+        Trace.beginSection("TodoCodec.readJson");
+        try {
+            return TodoCodec.readJson(new StringReader(json));
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void deleteLegacyTodos() {
+        todoLog.delete();
+        prefs.edit().remove(TODOS_KEY).apply();
+    }
+}
@@ -0,0 +1,208 @@
+package app.android.todomvc;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Full-text search over todo titles.
+//
+// Titles are split into lower-case word tokens and kept in a sorted inverted
+// index, so every query word matches as a prefix with one range lookup. Each todo
+// gets a small int doc id, and postings and completion are bitmaps over those ids:
+// query words combine with and/or over whole words of bits, and the query's status
+// is one more and or and-not. Only the todos left are checked against its time
+// ranges. The words' match is kept between queries, so changing only the rest of
+// the query skips the index. Each doc keeps its todo as last indexed, so results
+// need nothing else. The index lives on its own thread:
+// updates are queued there as todos change, and queries are debounced and run
+// there too, so neither ever blocks the main thread.
+public class TodoSearch {
+
+    private static final long DEBOUNCE_MS = 150;
+
+    public interface Callback {
+        // Called on the search thread with the matches in display order.
+        void onResults(int generation, TodoCollection results);
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "todo-search"));
+    // Only touched on the search thread.
+    private final TreeMap<String, BitSet> postings = new TreeMap<>();
+    private final HashMap<TodoId, Integer> docIds = new HashMap<>();
+    private final ArrayList<Todo> docs = new ArrayList<>();
+    private final BitSet freeDocs = new BitSet();
+    private final BitSet completedDocs = new BitSet();
+    // The words' match for the last query, until a title changes
+    private String cachedQuery;
+    private BitSet cachedMatch;
+    private ScheduledFuture<?> pending;
+
+    public void reset(List<Todo> todos) {
+        ArrayList<Todo> copy = new ArrayList<>(todos);
+        executor.execute(() -> {
+            postings.clear();
+            docIds.clear();
+            docs.clear();
+            freeDocs.clear();
+            completedDocs.clear();
+            cachedQuery = null;
+            for (Todo todo : copy) {
+                index(todo);
+            }
+        });
+    }
+
+    public void add(Todo todo) {
+        executor.execute(() -> index(todo));
+    }
+
+    public void remove(Todo todo) {
+        executor.execute(() -> unindex(todo));
+    }
+
+    // Takes a new version of an indexed todo with the same title, e.g. toggled or
+    // moved.
+    public void update(Todo todo) {
+        executor.execute(() -> {
+            Integer doc = docIds.get(todo.getId());
+            if (doc == null) return;
+            docs.set(doc, todo);
+            completedDocs.set(doc, todo.isCompleted());
+        });
+    }
+
+    // Runs the query, which must have words, once the user pauses typing; a newer
+    // call cancels one that has not started yet.
+    public void search(TodoQuery query, int generation, Callback callback) {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.schedule(
+                () -> callback.onResults(generation, find(query)),
+                DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private TodoCollection find(TodoQuery query) {
+        long start = System.nanoTime();
+        try {
+            return findDocs(query);
+        } finally {
+            TodoMetrics.SEARCH.stop(start);
+        }
+    }
+
+    private TodoCollection findDocs(TodoQuery query) {
+        String words = query.getWords();
+        if (!words.equals(cachedQuery)) {
+            cachedQuery = words;
+            cachedMatch = matchWords(words);
+        }
+        if (cachedMatch.isEmpty()) return TodoCollection.empty(false);
+
+        BitSet match = (BitSet) cachedMatch.clone();
+        if (query.getStatus() == TodoQuery.Status.COMPLETED) {
+            match.and(completedDocs);
+        } else if (query.getStatus() == TodoQuery.Status.ACTIVE) {
+            match.andNot(completedDocs);
+        }
+
+        // Only the time ranges look at the todos themselves, and only at the ones
+        // the bitmaps left.
+        boolean ranges = query.hasDueRange() || query.hasCreatedRange();
+        ArrayList<Todo> results = new ArrayList<>(match.cardinality());
+        for (int doc = match.nextSetBit(0); doc >= 0; doc = match.nextSetBit(doc + 1)) {
+            Todo todo = docs.get(doc);
+            if (!ranges || query.matchesRanges(todo)) results.add(todo);
+        }
+        results.sort(TodoCollection.BY_ORDER);
+        return TodoCollection.of(results, false);
+    }
+
+    // The docs matching every word of the query as a prefix.
+    private BitSet matchWords(String query) {
+        BitSet match = null;
+        for (String prefix : tokenize(query)) {
+            BitSet words = matchPrefix(prefix);
+            if (match == null) {
+                match = words;
+            } else {
+                match.and(words);
+            }
+            if (match.isEmpty()) break;
+        }
+        return match == null ? new BitSet() : match;
+    }
+
+    // Returns a new bitmap, which the caller may change.
+    private BitSet matchPrefix(String prefix) {
+        BitSet docs = new BitSet();
+        for (BitSet posting : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+            docs.or(posting);
+        }
+        return docs;
+    }
+
+    private void index(Todo todo) {
+        int doc = freeDocs.nextSetBit(0);
+        if (doc < 0) {
+            doc = docs.size();
+            docs.add(todo);
+        } else {
+            freeDocs.clear(doc);
+            docs.set(doc, todo);
+        }
+        docIds.put(todo.getId(), doc);
+        completedDocs.set(doc, todo.isCompleted());
+        for (String token : tokenize(todo.getTitle())) {
+            BitSet posting = postings.get(token);
+            if (posting == null) {
+                posting = new BitSet();
+                postings.put(token, posting);
+            }
+            posting.set(doc);
+        }
+        cachedQuery = null;
+    }
+
+    private void unindex(Todo todo) {
+        Integer doc = docIds.remove(todo.getId());
+        if (doc == null) return;
+        for (String token : tokenize(todo.getTitle())) {
+            BitSet posting = postings.get(token);
+            if (posting == null) continue;
+            posting.clear(doc);
+            if (posting.isEmpty()) postings.remove(token);
+        }
+        completedDocs.clear(doc);
+        docs.set(doc, null);
+        freeDocs.set(doc);
+        cachedQuery = null;
+    }
+
+    static List<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
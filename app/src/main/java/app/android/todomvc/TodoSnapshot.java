@@ -0,0 +1,54 @@
+package app.android.todomvc;
+
+import java.util.List;
+
+// One filtered view of a list as stored, with the list's counts.
+//
+// Read on the writer thread once the changes queued before it was asked for have
+// been written, so its counts and rows agree with all of them. Only the first rows
+// are read up front; the pager loads any others a page at a time with indexed
+// queries, on its own thread. A page read after a later write may already show
+// it; the snapshot that comes with every write brings the sizes to match.
+public final class TodoSnapshot implements TodoPagingSource {
+
+    // The first two pages of TodoPager, which a new view is shown from
+    public static final int FIRST_ROWS = 100;
+
+    public interface Pages {
+        // Blocks until the todos at positions [start, start + count) are read.
+        List<Todo> read(int start, int count);
+    }
+
+    private final int size;
+    private final int activeCount;
+    private final int completedCount;
+    private final long nextDue;
+    private final List<Todo> first;
+    private final Pages pages;
+
+    public TodoSnapshot(int size, int activeCount, int completedCount, long nextDue, List<Todo> first, Pages pages) {
+        this.size = size;
+        this.activeCount = activeCount;
+        this.completedCount = completedCount;
+        this.nextDue = nextDue;
+        this.first = first;
+        this.pages = pages;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Not on the main thread: rows past the first ones are read from the database.
+    @Override
+    public List<Todo> load(int start, int count) {
+        if (start + count <= first.size()) return first.subList(start, start + count);
+        return pages.read(start, count);
+    }
+
+    public int getActiveCount() { return activeCount; }
+    public int getCompletedCount() { return completedCount; }
+    // The next time a todo in a date view falls due, or 0 if none will
+    public long getNextDue() { return nextDue; }
+}
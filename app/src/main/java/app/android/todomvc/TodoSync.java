@@ -0,0 +1,48 @@
+package app.android.todomvc;
+
+import java.io.IOException;
+import java.util.List;
+
+// One round trip with a sync server.
+//
+// A replica sends what it has changed since its last sync, with the server's
+// sequence number it has caught up to, and gets back the changes other replicas
+// made since then along with the server's current sequence number. Both ways a
+// batch is a delta of whole todos (see TodoChange), never a list, and is sent
+// deflated, see TodoCodec.encodeBatch(). Todos are merged field by field
+// wherever they arrive, so a failed or repeated round trip does no harm: the
+// same changes are simply sent again.
+public final class TodoSync {
+
+    public interface Server {
+        // Takes an encoded request batch and returns the encoded response.
+        byte[] exchange(byte[] request) throws IOException;
+    }
+
+    // Changes and the sequence number they bring the receiver up to.
+    public static final class Batch {
+        private final long seq;
+        private final List<TodoChange> changes;
+
+        public Batch(long seq, List<TodoChange> changes) {
+            this.seq = seq;
+            this.changes = changes;
+        }
+
+        // Getters
+        public long getSeq() { return seq; }
+        public List<TodoChange> getChanges() { return changes; }
+    }
+
+    private TodoSync() {}
+
+    // Sends the local changes and returns the server's. Lists come before their
+    // todos both ways.
+    public static Batch exchange(Server server, long cursor, List<TodoChange> changes) throws IOException {
+        byte[] request = TodoCodec.encodeBatch(new Batch(cursor, changes));
+        byte[] response = server.exchange(request);
+        TodoMetrics.SYNC_BYTES_SENT.add(request.length);
+        TodoMetrics.SYNC_BYTES_RECEIVED.add(response.length);
+        return TodoCodec.decodeBatch(response);
+    }
+}
@@ -0,0 +1,134 @@
+package app.android.todomvc;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Streams a list to and from JSON lines and CSV files.
+//
+// Nothing is held beyond one batch: exports walk an immutable TodoCollection, and
+// imports hand todos over BATCH_SIZE at a time to a sink that may block until
+// earlier batches have been applied, so a file of any length is read in flat
+// memory.
+public final class TodoTransfer {
+
+    public static final int JSON_LINES = 1;
+    public static final int CSV = 2;
+
+    public static final int BATCH_SIZE = 500;
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    public interface Progress {
+        void onProgress(int todos);
+    }
+
+    public interface BatchSink {
+        // Takes ownership of the list.
+        void onBatch(List<Todo> todos) throws IOException;
+    }
+
+    // Where an import or export stands.
+    public static final class Status {
+        public static final int RUNNING = 0;
+        public static final int DONE = 1;
+        public static final int FAILED = 2;
+
+        private final boolean importing;
+        private final int state;
+        private final int todos;
+
+        public Status(boolean importing, int state, int todos) {
+            this.importing = importing;
+            this.state = state;
+            this.todos = todos;
+        }
+
+        // Getters
+        public boolean isImporting() { return importing; }
+        public int getState() { return state; }
+        public int getTodos() { return todos; }
+    }
+
+    private TodoTransfer() {}
+
+    // Writes the todos oldest first, so that importing the file, which puts each
+    // todo on top, rebuilds the list in the same order. Returns how many were
+    // written.
+    public static int write(int format, Writer writer, List<Todo> todos, Progress progress) throws IOException {
+        JsonWriter json = null;
+        if (format == JSON_LINES) {
+            json = TodoCodec.newJsonLinesWriter(writer);
+        } else {
+            TodoCodec.writeCsvHeader(writer);
+        }
+        int written = 0;
+        for (int i = todos.size() - 1; i >= 0; i--) {
+            if (json != null) {
+                TodoCodec.writeJsonLine(json, writer, todos.get(i));
+            } else {
+                TodoCodec.writeCsvTodo(writer, todos.get(i));
+            }
+            if (++written % PROGRESS_INTERVAL == 0) progress.onProgress(written);
+        }
+        writer.flush();
+        return written;
+    }
+
+    // Reads either format; JSON lines are told apart by their first character.
+    // Returns how many todos were read.
+    public static int read(Reader reader, BatchSink sink, Progress progress) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        Batcher batcher = new Batcher(sink, progress);
+        if (startsWithObject(in)) {
+            TodoCodec.readJsonLines(in, batcher);
+        } else {
+            TodoCodec.readCsv(in, batcher);
+        }
+        batcher.flush();
+        return batcher.count;
+    }
+
+    // Skips leading whitespace and a byte order mark, and leaves the reader at the
+    // first character after them.
+    private static boolean startsWithObject(BufferedReader in) throws IOException {
+        while (true) {
+            in.mark(1);
+            int c = in.read();
+            if (c == -1) return false;
+            if (c != '\uFEFF' && !Character.isWhitespace(c)) {
+                in.reset();
+                return c == '{';
+            }
+        }
+    }
+
+    private static final class Batcher implements TodoCodec.TodoSink {
+        private final BatchSink sink;
+        private final Progress progress;
+        private ArrayList<Todo> batch = new ArrayList<>(BATCH_SIZE);
+        int count;
+
+        Batcher(BatchSink sink, Progress progress) {
+            this.sink = sink;
+            this.progress = progress;
+        }
+
+        @Override
+        public void accept(Todo todo) throws IOException {
+            batch.add(todo);
+            if (++count % PROGRESS_INTERVAL == 0) progress.onProgress(count);
+            if (batch.size() == BATCH_SIZE) flush();
+        }
+
+        void flush() throws IOException {
+            if (batch.isEmpty()) return;
+            ArrayList<Todo> full = batch;
+            batch = new ArrayList<>(BATCH_SIZE);
+            sink.onBatch(full);
+        }
+    }
+}
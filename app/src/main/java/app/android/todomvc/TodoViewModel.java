@@ -1,42 +1,161 @@
 package app.android.todomvc;
 
 import android.app.Application;
-import android.content.Context;
-import android.content.SharedPreferences;
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import java.lang.reflect.Type;
+import androidx.lifecycle.Observer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TodoViewModel extends AndroidViewModel {
 
-    private static final String PREFS_NAME = "todo_prefs";
-    private static final String TODOS_KEY = "todos_list";
+    private static final String TAG = "TodoViewModel";
 
-    private MutableLiveData<ArrayList<Todo>> allTodos = new MutableLiveData<>();
-    private MutableLiveData<ArrayList<Todo>> filteredTodos = new MutableLiveData<>();
-    private MutableLiveData<String> currentFilter = new MutableLiveData<>("All");
+    // Undo keeps at most this many changes, and drops the oldest once they hold more
+    // ops than MAX_UNDO_OPS between them.
+    private static final int MAX_UNDO_CHANGES = 50;
+    private static final int MAX_UNDO_OPS = 20000;
+    // The undo histories of lists opened recently are kept, so an undo offered
+    // before switching lists still works after switching back.
+    private static final int MAX_CACHED_LISTS = 4;
+    // Batches an import may read ahead of the ones applied on the main thread
+    private static final int IMPORT_BATCHES_AHEAD = 2;
+    // Recent todos were added today or on the days before it, this many days in all
+    private static final int RECENT_DAYS = 7;
+
+    // What is kept in memory for one list: its undo history. Its todos are read
+    // from the database a view at a time, see TodoSnapshot.
+    private static final class ListState {
+        final long id;
+        final TodoHistory history = new TodoHistory(MAX_UNDO_CHANGES, MAX_UNDO_OPS);
+
+        ListState(long id) {
+            this.id = id;
+        }
+    }
+
+    // Todos a change removed, to offer undoing it.
+    public static final class Removed {
+        private final long changeId;
+        private final int count;
+
+        Removed(long changeId, int count) {
+            this.changeId = changeId;
+            this.count = count;
+        }
+
+        public long getChangeId() { return changeId; }
+        public int getCount() { return count; }
+    }
+
+    private MutableLiveData<TodoPagingSource> filteredTodos = new MutableLiveData<>();
+    private MutableLiveData<TodoFilter> currentFilter = new MutableLiveData<>(TodoFilter.ALL);
+    // Narrows any filter to the todos added in the last RECENT_DAYS days
+    private MutableLiveData<Boolean> recentOnly = new MutableLiveData<>(false);
     private MutableLiveData<Integer> activeCount = new MutableLiveData<>(0);
     private MutableLiveData<Integer> completedCount = new MutableLiveData<>(0);
     private MutableLiveData<Integer> totalCount = new MutableLiveData<>(0);
+    private MutableLiveData<Removed> removed = new MutableLiveData<>();
+
+    private MutableLiveData<List<TodoList>> lists = new MutableLiveData<>(Collections.emptyList());
+    private Observer<List<TodoList>> listsObserver = this::onListsLoaded;
+    private MutableLiveData<Long> currentListId = new MutableLiveData<>();
+
+    // The open view as last read; shown again when a search is cleared.
+    private TodoSnapshot snapshot;
+    // Bumped by every query, so a snapshot of a list or filter left meanwhile is dropped.
+    private int queryGeneration;
+    private boolean queryPosted;
+    private final Runnable queryRunnable = this::query;
 
-    private SharedPreferences prefs;
-    private Gson gson = new Gson();
+    // Search results arrive from the search thread and are shown while a query is set.
+    private MutableLiveData<TodoCollection> searchResults = new MutableLiveData<>();
+    private Observer<TodoCollection> searchObserver = this::onSearchResults;
+    private String searchQuery = "";
+    private volatile int searchGeneration;
+    // The index holds the open list, read the first time it is searched, and is
+    // kept current with every change written since.
+    private boolean searchIndexed;
+    private boolean searchIndexing;
+
+    private final LinkedHashMap<Long, ListState> cache = new LinkedHashMap<Long, ListState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ListState> eldest) {
+            return size() > MAX_CACHED_LISTS;
+        }
+    };
+    private ListState current;
+    private TodoSearch search = new TodoSearch();
+    private TodoRepository repository;
+
+    // Imports and exports run one at a time, off the main thread.
+    private final ExecutorService transfers = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "todo-transfer"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private MutableLiveData<TodoTransfer.Status> transferStatus = new MutableLiveData<>();
+    // True while changes are failing to save and are being retried
+    private MutableLiveData<Boolean> saveFailing = new MutableLiveData<>(false);
+    // True once a sync has failed, until that has been shown
+    private MutableLiveData<Boolean> syncFailed = new MutableLiveData<>(false);
+    private boolean cleared;
+    // Shows a date view again when the next todo in it falls due or the day ends.
+    private final Runnable dateViewRefresh = this::query;
 
     public TodoViewModel(Application application) {
         super(application);
-        prefs = application.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        loadTodos();
+        repository = TodoRepository.getInstance(application);
+        repository.setSaveListener(saveFailing::postValue);
+        searchResults.observeForever(searchObserver);
+        lists.observeForever(listsObserver);
+
+        current = new ListState(repository.getCurrentListId());
+        cache.put(current.id, current);
+        currentListId.setValue(current.id);
+        query();
+        repository.loadLists(lists::postValue);
+        sync();
+    }
+
+    @Override
+    protected void onCleared() {
+        searchResults.removeObserver(searchObserver);
+        lists.removeObserver(listsObserver);
+        cleared = true;
+        mainHandler.removeCallbacks(dateViewRefresh);
+        mainHandler.removeCallbacks(queryRunnable);
+        transfers.shutdownNow();
+        search.close();
+        repository.setSaveListener(null);
+        // The repository outlives this ViewModel; only make sure nothing is left queued.
+        repository.checkpoint();
     }
 
-    public LiveData<ArrayList<Todo>> getFilteredTodos() {
+    public LiveData<TodoPagingSource> getFilteredTodos() {
         return filteredTodos;
     }
 
@@ -52,120 +171,497 @@ public class TodoViewModel extends AndroidViewModel {
         return totalCount;
     }
 
-    public LiveData<String> getCurrentFilter() {
+    public LiveData<TodoFilter> getCurrentFilter() {
         return currentFilter;
     }
 
-    private void loadTodos() {
-        String json = prefs.getString(TODOS_KEY, null);
-        Type type = new TypeToken<ArrayList<Todo>>() {}.getType();
-        ArrayList<Todo> list = gson.fromJson(json, type);
-        if (list == null) {
-            list = new ArrayList<>();
+    public LiveData<Boolean> getRecentOnly() {
+        return recentOnly;
+    }
+
+    // Every list with its counts as last read; those of the open list may lag behind
+    // its own counts by a moment.
+    public LiveData<List<TodoList>> getLists() {
+        return lists;
+    }
+
+    public LiveData<Long> getCurrentListId() {
+        return currentListId;
+    }
+
+    // Shows another list. The one open stays on screen until the new one has been
+    // read.
+    public void openList(long listId) {
+        if (listId == current.id) return;
+        ListState state = cache.get(listId);
+        if (state == null) {
+            state = new ListState(listId);
+            cache.put(listId, state);
         }
-        allTodos.setValue(list);
-        applyFilter(currentFilter.getValue());
+        current = state;
+        currentListId.setValue(listId);
+        repository.setCurrentListId(listId);
+        // Search results still on their way are for the previous list.
+        searchGeneration++;
+        searchIndexed = false;
+        searchIndexing = false;
+        search.reset(Collections.emptyList());
+        query();
+        refreshLists();
     }
 
-    private void saveTodos() {
-        String json = gson.toJson(allTodos.getValue());
-        prefs.edit().putString(TODOS_KEY, json).apply();
+    // Creates an empty list and opens it.
+    public void createList(String name) {
+        if (name == null || name.trim().isEmpty()) return;
+        long listId = ThreadLocalRandom.current().nextLong(TodoList.DEFAULT_ID + 1, Long.MAX_VALUE);
+        repository.createList(listId, Todo.capTitle(name.trim()));
+        openList(listId);
     }
 
-    public void addTodo(String title) {
-        if (title == null || title.trim().isEmpty()) return;
-        ArrayList<Todo> current = allTodos.getValue();
-        if (current == null) current = new ArrayList<>();
-        current.add(0, new Todo(UUID.randomUUID().toString(), title.trim(), false));
-        allTodos.setValue(current);
-        saveTodos();
-        applyFilter(currentFilter.getValue());
-    }
-
-    public void toggleTodo(String id) {
-        ArrayList<Todo> current = allTodos.getValue();
-        if (current == null) return;
-        for (Todo todo : current) {
-            if (todo.getId().equals(id)) {
-                todo.setCompleted(!todo.isCompleted());
+    // Deletes a list with all its todos, opening another one if it was open. The
+    // last list cannot be deleted.
+    public boolean deleteList(long listId) {
+        TodoList next = null;
+        for (TodoList list : lists.getValue()) {
+            if (list.getId() != listId) {
+                next = list;
                 break;
             }
         }
-        allTodos.setValue(current);
-        saveTodos();
-        applyFilter(currentFilter.getValue());
+        if (next == null) return false;
+        if (listId == current.id) {
+            openList(next.getId());
+        }
+        cache.remove(listId);
+        repository.deleteList(listId);
+        refreshLists();
+        return true;
     }
 
-    public void updateTodo(String id, String newTitle) {
+    private void refreshLists() {
+        repository.loadLists(lists::postValue);
+    }
+
+    // The last open list may have been lost with a damaged database; fall back to
+    // one that exists.
+    private void onListsLoaded(List<TodoList> loadedLists) {
+        if (loadedLists.isEmpty()) return;
+        for (TodoList list : loadedLists) {
+            if (list.getId() == current.id) return;
+        }
+        openList(loadedLists.get(0).getId());
+    }
+
+    // Reads the open view again once this pass of the main loop is done, so the
+    // changes made in it are read back once.
+    private void requestQuery() {
+        if (queryPosted) return;
+        queryPosted = true;
+        mainHandler.post(queryRunnable);
+    }
+
+    private void query() {
+        queryPosted = false;
+        mainHandler.removeCallbacks(queryRunnable);
+        int generation = ++queryGeneration;
+        long start = System.nanoTime();
+        repository.query(current.id, currentQuery(System.currentTimeMillis()),
+                queried -> mainHandler.post(() -> onQueried(generation, start, queried)));
+    }
+
+    private void onQueried(int generation, long start, TodoSnapshot queried) {
+        if (cleared || generation != queryGeneration) return;
+        // From asking to having the rows, all on the writer thread
+        TodoMetrics.FILTER.stop(start);
+        snapshot = queried;
+        activeCount.setValue(queried.getActiveCount());
+        completedCount.setValue(queried.getCompletedCount());
+        totalCount.setValue(queried.getActiveCount() + queried.getCompletedCount());
+        TodoMetrics.TODOS.set(queried.getActiveCount() + queried.getCompletedCount());
+        scheduleDateViewRefresh(queried.getNextDue());
+        if (searchQuery.isEmpty()) {
+            filteredTodos.setValue(queried);
+        } else {
+            // The results are copies of the todos, which may have changed.
+            search();
+        }
+    }
+
+    private void onSearchResults(TodoCollection results) {
+        if (!searchQuery.isEmpty()) {
+            filteredTodos.setValue(results);
+        }
+    }
+
+    public void addTodo(String title) {
+        if (title == null || title.trim().isEmpty()) return;
+        // Without an order it goes on top of the list.
+        save(TodoOp.add(current.id,
+                new Todo(TodoId.random(), Todo.capTitle(title.trim()), false, 0, System.currentTimeMillis(), 0)));
+    }
+
+    // Sets the todo's completed state to the one its checkbox shows.
+    public void toggleTodo(TodoId id, boolean completed) {
+        save(TodoOp.toggle(id, completed));
+    }
+
+    public void updateTodo(TodoId id, String newTitle) {
         if (newTitle == null || newTitle.trim().isEmpty()) {
             deleteTodo(id);
             return;
         }
-        ArrayList<Todo> current = allTodos.getValue();
-        if (current == null) return;
-        for (Todo todo : current) {
-            if (todo.getId().equals(id)) {
-                todo.setTitle(newTitle.trim());
-                break;
-            }
-        }
-        allTodos.setValue(current);
-        saveTodos();
-        applyFilter(currentFilter.getValue());
+        save(TodoOp.rename(id, Todo.capTitle(newTitle.trim())));
+    }
+
+    // Sets when the todo is due and a reminder is shown; 0 removes it.
+    public void setDue(TodoId id, long due) {
+        save(TodoOp.setDue(id, Math.max(0, due)));
+    }
+
+    // Moves a todo to just below another one, or to the top of the list if that is
+    // null. This stores one todo's new order, or once in a while those of a few
+    // neighbours too, see TodoMoves.
+    public void moveTodo(TodoId id, TodoId aboveId) {
+        change(database -> database.planMove(id, aboveId), true);
     }
 
-    public void deleteTodo(String id) {
-        ArrayList<Todo> current = allTodos.getValue();
-        if (current == null) return;
-        current.removeIf(todo -> todo.getId().equals(id));
-        allTodos.setValue(current);
-        saveTodos();
-        applyFilter(currentFilter.getValue());
+    // getRemoved() offers to undo it.
+    public void deleteTodo(TodoId id) {
+        save(TodoOp.delete(id));
     }
 
+    // getRemoved() offers to undo it.
     public void clearCompleted() {
-        ArrayList<Todo> current = allTodos.getValue();
-        if (current == null) return;
-        current.removeIf(Todo::isCompleted);
-        allTodos.setValue(current);
-        saveTodos();
-        applyFilter(currentFilter.getValue());
+        save(TodoOp.clearCompleted(current.id));
     }
 
-    public void setFilter(String filter) {
-        currentFilter.setValue(filter);
-        applyFilter(filter);
+    // Completes every todo, or reopens them all if they are all completed already.
+    public void toggleAll() {
+        long listId = current.id;
+        change(database -> database.planToggleAll(listId), true);
     }
 
-    private void applyFilter(String filter) {
-        ArrayList<Todo> all = allTodos.getValue();
-        if (all == null) return;
+    // Completes the given todos, or reopens them if they are all completed already.
+    public void toggleTodos(Collection<TodoId> ids) {
+        ArrayList<TodoId> toggled = new ArrayList<>(ids);
+        change(database -> database.planToggle(toggled), true);
+    }
 
-        int total = all.size(); // Calculate total count
-        int active = 0;
-        int completed = 0;
-        for (Todo todo : all) {
-            if (!todo.isCompleted()) {
-                active++;
+    // getRemoved() offers to undo it.
+    public void deleteTodos(Collection<TodoId> ids) {
+        ArrayList<TodoOp> ops = new ArrayList<>(ids.size());
+        for (TodoId id : ids) {
+            ops.add(TodoOp.delete(id));
+        }
+        save(ops, true);
+    }
+
+    // The last change to the open list that removed todos, or null once it has been
+    // shown.
+    public LiveData<Removed> getRemoved() {
+        return removed;
+    }
+
+    public void onRemovedShown() {
+        removed.setValue(null);
+    }
+
+    // Reverses the given change if it is still the latest one. However many todos
+    // it touched, they are restored as one batch and one write.
+    public boolean undo(long changeId) {
+        List<TodoOp> inverse = current.history.undo(changeId);
+        if (inverse == null) return false;
+        save(inverse, false);
+        return true;
+    }
+
+    // Applies an undone change again if nothing has happened since it was undone.
+    public boolean redo(long changeId) {
+        List<TodoOp> ops = current.history.redo(changeId);
+        if (ops == null) return false;
+        save(ops, false);
+        return true;
+    }
+
+    private void save(TodoOp op) {
+        save(Collections.singletonList(op), true);
+    }
+
+    // Queues the ops as one write, which can be undone as one change if recorded,
+    // and reads the view again once it is written.
+    private void save(List<TodoOp> ops, boolean record) {
+        ListState state = current;
+        repository.save(ops, applied -> mainHandler.post(() -> onApplied(state, record, applied)));
+        requestQuery();
+    }
+
+    private void change(TodoDatabase.Plan plan, boolean record) {
+        ListState state = current;
+        repository.change(plan, applied -> mainHandler.post(() -> onApplied(state, record, applied)));
+        requestQuery();
+    }
+
+    // Called in the order the changes were written, which the history and the
+    // search index follow.
+    private void onApplied(ListState state, boolean record, TodoDatabase.Applied applied) {
+        if (cleared || applied.isEmpty()) return;
+        if (record) {
+            long changeId = state.history.record(applied.getOps(), applied.getInverse());
+            if (applied.getRemoved() > 0 && state == current) {
+                removed.setValue(new Removed(changeId, applied.getRemoved()));
+            }
+        }
+        if (state == current && searchIndexed) {
+            index(applied);
+        }
+    }
+
+    private void index(TodoDatabase.Applied applied) {
+        for (int i = 0; i < applied.getBefore().size(); i++) {
+            Todo before = applied.getBefore().get(i);
+            Todo after = applied.getAfter().get(i);
+            if (before == null) {
+                search.add(after);
+            } else if (after == null) {
+                search.remove(before);
+            } else if (!before.getTitle().equals(after.getTitle())) {
+                search.remove(before);
+                search.add(after);
             } else {
-                completed++;
+                search.update(after);
             }
         }
-        activeCount.setValue(active);
-        completedCount.setValue(completed);
-        totalCount.setValue(total); // Post the new total count
-
-        // ... rest of the filtering logic remains the same
-        ArrayList<Todo> result = new ArrayList<>();
-        for (Todo todo : all) {
-            if ("All".equals(filter)) {
-                result.add(todo);
-            } else if ("Active".equals(filter) && !todo.isCompleted()) {
-                result.add(todo);
-            } else if ("Completed".equals(filter) && todo.isCompleted()) {
-                result.add(todo);
+    }
+
+    public LiveData<Boolean> getSaveFailing() {
+        return saveFailing;
+    }
+
+    public LiveData<Boolean> getSyncFailed() {
+        return syncFailed;
+    }
+
+    public void onSyncFailedShown() {
+        syncFailed.setValue(false);
+    }
+
+    public String getSyncUrl() {
+        return repository.getSyncUrl();
+    }
+
+    // Syncs with the server at the URL from now on, at once and whenever the app
+    // starts or goes into the background; an empty one turns sync off. Returns false
+    // if the URL is not an HTTP one.
+    public boolean setSyncUrl(String url) {
+        try {
+            repository.setSyncUrl(url == null ? "" : url.trim());
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        sync();
+        return true;
+    }
+
+    public boolean isSyncEnabled() {
+        return repository.isSyncEnabled();
+    }
+
+    // Does nothing while sync is off.
+    public void sync() {
+        repository.sync(merged -> mainHandler.post(() -> onSynced(merged)));
+    }
+
+    // Changes merged from elsewhere are not recorded for undo. The open view is read
+    // again if they touched it, and the index is read again the next time it is
+    // searched, as the merge reports ops rather than the todos they made.
+    private void onSynced(TodoDatabase.Merged merged) {
+        if (cleared) return;
+        if (merged == null) {
+            syncFailed.setValue(true);
+            return;
+        }
+        if (merged.isListsChanged()) {
+            refreshLists();
+        }
+        if (merged.getOps().containsKey(current.id)) {
+            searchGeneration++;
+            searchIndexed = false;
+            searchIndexing = false;
+            requestQuery();
+        }
+    }
+
+    // The latest import or export, or null once it has been shown as finished.
+    public LiveData<TodoTransfer.Status> getTransferStatus() {
+        return transferStatus;
+    }
+
+    public void onTransferStatusShown() {
+        TodoTransfer.Status status = transferStatus.getValue();
+        if (status != null && status.getState() != TodoTransfer.Status.RUNNING) {
+            transferStatus.setValue(null);
+        }
+    }
+
+    // Writes the open list to the document in the given TodoTransfer format, as
+    // stored once the changes made before the export have been written.
+    public void exportTodos(Uri uri, int format) {
+        long listId = current.id;
+        ContentResolver resolver = getApplication().getContentResolver();
+        transfers.execute(() -> {
+            long start = System.nanoTime();
+            transferStatus.postValue(new TodoTransfer.Status(false, TodoTransfer.Status.RUNNING, 0));
+            try (OutputStream out = resolver.openOutputStream(uri)) {
+                if (out == null) throw new IOException("Cannot open " + uri);
+                List<Todo> todos = repository.readAll(listId);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                int written = TodoTransfer.write(format, writer, todos, count -> transferStatus.postValue(
+                        new TodoTransfer.Status(false, TodoTransfer.Status.RUNNING, count)));
+                transferStatus.postValue(new TodoTransfer.Status(false, TodoTransfer.Status.DONE, written));
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Failed to export todos", e);
+                transferStatus.postValue(new TodoTransfer.Status(false, TodoTransfer.Status.FAILED, 0));
             }
+            TodoMetrics.EXPORT.stop(start);
+        });
+    }
+
+    // Adds the todos in the document, JSON lines or CSV, on top of the open list.
+    // They get new ids, so importing a file twice copies its todos twice. Batches
+    // are applied and stored as they are read, and reading waits while the main
+    // thread is behind. The import stops if another list is opened meanwhile.
+    public void importTodos(Uri uri) {
+        ListState target = current;
+        ContentResolver resolver = getApplication().getContentResolver();
+        transfers.execute(() -> {
+            long start = System.nanoTime();
+            transferStatus.postValue(new TodoTransfer.Status(true, TodoTransfer.Status.RUNNING, 0));
+            Semaphore ahead = new Semaphore(IMPORT_BATCHES_AHEAD);
+            AtomicBoolean stopped = new AtomicBoolean();
+            try (InputStream in = resolver.openInputStream(uri)) {
+                if (in == null) throw new IOException("Cannot open " + uri);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                int read = TodoTransfer.read(reader, batch -> {
+                    acquire(ahead, 1);
+                    if (stopped.get()) throw new IOException("Import stopped");
+                    mainHandler.post(() -> {
+                        if (!importBatch(target, batch)) stopped.set(true);
+                        ahead.release();
+                    });
+                }, count -> transferStatus.postValue(
+                        new TodoTransfer.Status(true, TodoTransfer.Status.RUNNING, count)));
+                // Done once the last batches have been applied too
+                acquire(ahead, IMPORT_BATCHES_AHEAD);
+                if (stopped.get()) throw new IOException("Import stopped");
+                transferStatus.postValue(new TodoTransfer.Status(true, TodoTransfer.Status.DONE, read));
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Failed to import todos", e);
+                transferStatus.postValue(new TodoTransfer.Status(true, TodoTransfer.Status.FAILED, 0));
+            }
+            TodoMetrics.IMPORT.stop(start);
+        });
+    }
+
+    private static void acquire(Semaphore semaphore, int permits) throws InterruptedIOException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Import cancelled");
+        }
+    }
+
+    // Returns false if the list the import is for is no longer open.
+    private boolean importBatch(ListState target, List<Todo> batch) {
+        if (cleared || target != current) return false;
+        ArrayList<TodoOp> ops = new ArrayList<>(batch.size());
+        for (Todo todo : batch) {
+            ops.add(TodoOp.add(current.id, new Todo(TodoId.random(), todo.getTitle(), todo.isCompleted(), 0,
+                    todo.getCreated(), todo.getDue())));
+        }
+        // Not undoable: an import can be far larger than the undo history.
+        save(ops, false);
+        return true;
+    }
+
+    // Writes out queued changes now and refreshes the backup, e.g. before the app
+    // goes into the background.
+    public void checkpoint() {
+        repository.checkpoint();
+        sync();
+    }
+
+    public void setFilter(TodoFilter filter) {
+        currentFilter.setValue(filter);
+        query();
+    }
+
+    public void setRecentOnly(boolean recent) {
+        recentOnly.setValue(recent);
+        query();
+    }
+
+    // What the filter shows, of the recent todos only if asked; a search adds its
+    // words. Its times are as of now, so it is made again for every query.
+    private TodoQuery currentQuery(long now) {
+        TodoQuery query = currentFilter.getValue().toQuery(now);
+        if (recentOnly.getValue()) {
+            query = query.withCreated(TodoFilter.startOfDay(now, 1 - RECENT_DAYS), 0);
         }
-        filteredTodos.setValue(result);
+        return query;
+    }
+
+    // Narrows the list to todos whose title words start with every word of the query.
+    public void setSearchQuery(String query) {
+        searchQuery = query == null ? "" : query.trim();
+        if (!searchQuery.isEmpty()) {
+            search();
+        } else if (snapshot != null) {
+            searchGeneration++;
+            filteredTodos.setValue(snapshot);
+        }
+    }
+
+    private void search() {
+        int generation = ++searchGeneration;
+        if (!searchIndexed) {
+            indexSearch();
+            return;
+        }
+        TodoQuery query = currentQuery(System.currentTimeMillis()).withWords(searchQuery);
+        search.search(query, generation, (resultGeneration, results) -> {
+            // Drop results for a query or list that has changed since.
+            if (resultGeneration == searchGeneration) {
+                searchResults.postValue(results);
+            }
+        });
+    }
+
+    // Reads the open list into the index, then searches. Changes written after the
+    // read are posted after it, so onApplied() brings the index up to date in order.
+    private void indexSearch() {
+        if (searchIndexing) return;
+        searchIndexing = true;
+        long listId = current.id;
+        repository.readAll(listId, todos -> mainHandler.post(() -> {
+            if (cleared || listId != current.id || !searchIndexing) return;
+            searchIndexing = false;
+            searchIndexed = true;
+            search.reset(todos);
+            if (!searchQuery.isEmpty()) search();
+        }));
+    }
+
+    // The due index gives the next time a date view changes without a pass over it.
+    // The recent todos change at midnight.
+    private void scheduleDateViewRefresh(long nextDue) {
+        mainHandler.removeCallbacks(dateViewRefresh);
+        boolean dateFilter = currentFilter.getValue().isDateFilter();
+        if (!dateFilter && !recentOnly.getValue()) return;
+        long now = System.currentTimeMillis();
+        long at = TodoFilter.startOfDay(now, 1);
+        // A todo is overdue once its due time has passed
+        long next = nextDue + 1;
+        if (dateFilter && next != 1 && next < at) at = next;
+        mainHandler.postDelayed(dateViewRefresh, at - now);
     }
 }
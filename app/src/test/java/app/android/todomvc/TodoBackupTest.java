@@ -0,0 +1,133 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TodoBackupTest {
+
+    // Magic, version and list count, then the list's id and name ("List"), then
+    // the snapshot's magic, version, todo count and block count, then the first
+    // block's length.
+    private static final int FIRST_BLOCK = 12 + 8 + 6 + 16 + 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TodoBackup backup;
+    private File current;
+    private File previous;
+    private final List<String> synced = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        // Notes which files were in place each time the directory was synced
+        backup = new TodoBackup(folder.getRoot(), dir -> synced.add(
+                dir.getPath() + " " + current.exists() + " " + previous.exists()));
+        current = new File(folder.getRoot(), "todos.backup");
+        previous = new File(folder.getRoot(), "todos.backup.prev");
+    }
+
+    @Test
+    public void readsTheLatestBackup() throws IOException {
+        backup.write(partitions("Old", 10));
+        backup.write(partitions("New", 10));
+
+        assertTitles("New", 10, backup.read());
+    }
+
+    @Test
+    public void theDirectoryIsSyncedAfterTheRenames() throws IOException {
+        backup.write(partitions("Old", 10));
+        backup.write(partitions("New", 10));
+
+        String dir = folder.getRoot().getPath();
+        assertEquals(Arrays.asList(dir + " true false", dir + " true true"), synced);
+        assertFalse(new File(folder.getRoot(), "todos.backup.tmp").exists());
+        assertTrue(previous.exists());
+    }
+
+    @Test
+    public void checksumMismatchFallsBackToThePreviousBackup() throws IOException {
+        backup.write(partitions("Old", 10));
+        backup.write(partitions("New", 10));
+        damage(current, FIRST_BLOCK + 20);
+
+        assertTitles("Old", 10, backup.read());
+    }
+
+    @Test
+    public void truncatedBackupFallsBackToThePreviousBackup() throws IOException {
+        backup.write(partitions("Old", 10));
+        backup.write(partitions("New", 10));
+        try (RandomAccessFile file = new RandomAccessFile(current, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+
+        assertTitles("Old", 10, backup.read());
+    }
+
+    @Test
+    public void bothDamagedKeepsTheBlocksOfTheLatestThatCheckOut() throws IOException {
+        // More than one block's worth, so the second block survives
+        backup.write(partitions("Old", 300));
+        backup.write(partitions("New", 300));
+        damage(current, FIRST_BLOCK + 20);
+        damage(previous, FIRST_BLOCK + 20);
+
+        ArrayList<TodoPartition> read = backup.read();
+
+        List<Todo> todos = read.get(0).getTodos();
+        assertEquals(300 - 256, todos.size());
+        assertEquals("New 256", todos.get(0).getTitle());
+    }
+
+    @Test
+    public void damagedWithoutAPreviousBackupKeepsWhatChecksOut() throws IOException {
+        backup.write(partitions("New", 300));
+        damage(current, FIRST_BLOCK + 20);
+
+        assertEquals(300 - 256, backup.read().get(0).getTodos().size());
+    }
+
+    private static List<TodoPartition> partitions(String prefix, int size) {
+        ArrayList<Todo> todos = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            todos.add(new Todo(TodoId.random(), prefix + " " + i, false, size - i));
+        }
+        return Collections.singletonList(new TodoPartition(7, "List", todos));
+    }
+
+    private static void assertTitles(String prefix, int size, List<TodoPartition> read) {
+        assertEquals(1, read.size());
+        assertEquals(7, read.get(0).getListId());
+        assertEquals("List", read.get(0).getName());
+        List<Todo> todos = read.get(0).getTodos();
+        assertEquals(size, todos.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(prefix + " " + i, todos.get(i).getTitle());
+        }
+    }
+
+    // Flips the bits of one byte.
+    private static void damage(File file, long offset) throws IOException {
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            data.seek(offset);
+            int b = data.read();
+            data.seek(offset);
+            data.write(b ^ 0xff);
+        }
+    }
+}
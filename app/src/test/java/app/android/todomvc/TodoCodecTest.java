@@ -0,0 +1,276 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class TodoCodecTest {
+
+    private static final String ID = "0f8fad5b-d9cb-469f-a165-70867728950e";
+
+    @Test
+    public void csvRoundTripsAwkwardTitles() throws IOException {
+        List<Todo> todos = Arrays.asList(
+                new Todo(TodoId.random(), "Plain", false, 0, 1000, 0),
+                new Todo(TodoId.random(), "Milk, eggs, bread", true, 0, 2000, 3000),
+                new Todo(TodoId.random(), "Read \"Dune\"", false, 0, 0, 0),
+                new Todo(TodoId.random(), "Line one\nline two\r\nline three", false, 0, 0, 0),
+                new Todo(TodoId.random(), "", false, 0, 0, 0));
+        StringWriter writer = new StringWriter();
+        TodoCodec.writeCsvHeader(writer);
+        for (Todo todo : todos) {
+            TodoCodec.writeCsvTodo(writer, todo);
+        }
+
+        List<Todo> read = readCsv(writer.toString());
+
+        assertEquals(todos.size(), read.size());
+        for (int i = 0; i < todos.size(); i++) {
+            assertSameTodo(todos.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    public void csvQuotedFields() throws IOException {
+        List<Todo> read = readCsv("id,title,completed\r\n"
+                + ID + ",\"Milk, eggs\",true\r\n"
+                + "\"" + ID + "\",\"Say \"\"hi\"\"\",\"false\"\r\n");
+
+        assertEquals(2, read.size());
+        assertEquals(TodoId.fromString(ID), read.get(0).getId());
+        assertEquals("Milk, eggs", read.get(0).getTitle());
+        assertTrue(read.get(0).isCompleted());
+        assertEquals(TodoId.fromString(ID), read.get(1).getId());
+        assertEquals("Say \"hi\"", read.get(1).getTitle());
+        assertFalse(read.get(1).isCompleted());
+    }
+
+    @Test
+    public void csvLineBreaksInsideQuotesBelongToTheField() throws IOException {
+        List<Todo> read = readCsv("title,completed\n"
+                + "\"First\nsecond\",true\n"
+                + "\"CRLF\r\ninside\",false\n"
+                + "After,false\n");
+
+        assertEquals(3, read.size());
+        assertEquals("First\nsecond", read.get(0).getTitle());
+        assertTrue(read.get(0).isCompleted());
+        assertEquals("CRLF\r\ninside", read.get(1).getTitle());
+        assertEquals("After", read.get(2).getTitle());
+    }
+
+    @Test
+    public void csvCrlfAndLfLineEndsAreAlike() throws IOException {
+        List<Todo> crlf = readCsv("title,completed,due\r\nOne,true,5\r\nTwo,false,\r\n");
+        List<Todo> lf = readCsv("title,completed,due\nOne,true,5\nTwo,false,\n");
+
+        assertEquals(2, crlf.size());
+        for (int i = 0; i < crlf.size(); i++) {
+            assertEquals(lf.get(i).getTitle(), crlf.get(i).getTitle());
+            assertEquals(lf.get(i).isCompleted(), crlf.get(i).isCompleted());
+            assertEquals(lf.get(i).getDue(), crlf.get(i).getDue());
+        }
+        assertEquals("One", crlf.get(0).getTitle());
+        assertEquals(5, crlf.get(0).getDue());
+        assertEquals("Two", crlf.get(1).getTitle());
+    }
+
+    @Test
+    public void csvWithAByteOrderMarkIsImported() throws IOException {
+        List<Todo> read = importFile("\uFEFFtitle,completed,id\r\nBuy milk,true," + ID + "\r\n");
+
+        assertEquals(1, read.size());
+        assertEquals("Buy milk", read.get(0).getTitle());
+        assertTrue(read.get(0).isCompleted());
+        assertEquals(TodoId.fromString(ID), read.get(0).getId());
+    }
+
+    @Test
+    public void csvByteOrderMarkIsNotPartOfTheFirstField() throws IOException {
+        List<Todo> withHeader = readCsv("\uFEFFtitle,completed\r\nBuy milk,true\r\n");
+        List<Todo> withoutHeader = readCsv("\uFEFFBuy milk,true\r\n");
+
+        assertEquals(1, withHeader.size());
+        assertEquals("Buy milk", withHeader.get(0).getTitle());
+        assertEquals(1, withoutHeader.size());
+        assertEquals("Buy milk", withoutHeader.get(0).getTitle());
+    }
+
+    @Test
+    public void csvHeaderColumnsInAnyOrderAndCase() throws IOException {
+        List<Todo> read = readCsv("Due, Completed ,TITLE,Notes\r\n42,yes,Walk the dog,ignored\r\n");
+
+        assertEquals(1, read.size());
+        assertEquals("Walk the dog", read.get(0).getTitle());
+        assertEquals(42, read.get(0).getDue());
+    }
+
+    @Test
+    public void csvWithoutAHeaderIsTitleAndCompleted() throws IOException {
+        List<Todo> read = readCsv("Buy milk,true\r\n\r\nWalk the dog\r\n");
+
+        assertEquals(2, read.size());
+        assertEquals("Buy milk", read.get(0).getTitle());
+        assertTrue(read.get(0).isCompleted());
+        assertEquals("Walk the dog", read.get(1).getTitle());
+        assertFalse(read.get(1).isCompleted());
+    }
+
+    @Test(expected = IOException.class)
+    public void csvUnterminatedQuoteFails() throws IOException {
+        readCsv("title\r\n\"Never closed\r\n");
+    }
+
+    @Test
+    public void jsonSkipsMalformedRecordsAndKeepsTheRest() throws IOException {
+        String json = "["
+                + "{\"id\":\"" + ID + "\",\"title\":\"Good\",\"completed\":true,\"created\":5},"
+                + "{\"id\":\"not an id\",\"title\":\"Bad id\"},"
+                + "42,"
+                + "{\"title\":{\"nested\":[1,2]}},"
+                + "{\"title\":\"Bad time\",\"due\":\"soon\"},"
+                + "{\"title\":\"Fractional time\",\"created\":1.5},"
+                + "{\"title\":\"Also good\",\"unknown\":[true]}"
+                + "]";
+
+        List<Todo> read = TodoCodec.readJson(new StringReader(json));
+
+        assertEquals(2, read.size());
+        assertEquals(TodoId.fromString(ID), read.get(0).getId());
+        assertEquals("Good", read.get(0).getTitle());
+        assertTrue(read.get(0).isCompleted());
+        assertEquals(5, read.get(0).getCreated());
+        assertEquals("Also good", read.get(1).getTitle());
+    }
+
+    @Test
+    public void importedTitlesAreCutToTheLimit() throws IOException {
+        String title = repeat("\u00e9", Todo.MAX_TITLE_LENGTH + 10);
+
+        List<Todo> json = TodoCodec.readJson(new StringReader("[{\"title\":\"" + title + "\"}]"));
+        List<Todo> csv = readCsv("title\r\n" + title + "\r\n");
+
+        assertEquals(Todo.MAX_TITLE_LENGTH, json.get(0).getTitle().length());
+        assertEquals(Todo.MAX_TITLE_LENGTH, csv.get(0).getTitle().length());
+    }
+
+    @Test
+    public void cuttingATitleNeverSplitsASurrogatePair() {
+        String title = repeat("a", Todo.MAX_TITLE_LENGTH - 1) + "\ud83d\ude00";
+
+        assertEquals(repeat("a", Todo.MAX_TITLE_LENGTH - 1), Todo.capTitle(title));
+    }
+
+    @Test
+    public void theLongestTitleOfTheWidestCharsRoundTrips() throws IOException {
+        // Three bytes each in modified UTF-8, the most any char takes
+        String title = repeat("\u20ac", Todo.MAX_TITLE_LENGTH);
+        List<Todo> todos = Arrays.asList(new Todo(TodoId.random(), title, false, 1, 0, 0));
+
+        List<Todo> read = TodoCodec.readSnapshot(input(snapshot(todos)), true);
+
+        assertEquals(title, read.get(0).getTitle());
+    }
+
+    @Test(expected = IOException.class)
+    public void jsonThatIsNotAListFails() throws IOException {
+        TodoCodec.readJson(new StringReader("{\"title\":\"Not in a list\"}"));
+    }
+
+    @Test
+    public void snapshotRoundTrips() throws IOException {
+        List<Todo> todos = Arrays.asList(
+                new Todo(TodoId.random(), "One", true, 2, 1000, 2000),
+                new Todo(TodoId.random(), "Two", false, 1, 0, 0));
+
+        List<Todo> read = TodoCodec.readSnapshot(input(snapshot(todos)), true);
+
+        assertEquals(2, read.size());
+        for (int i = 0; i < todos.size(); i++) {
+            assertSameTodo(todos.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    public void snapshotChecksumMismatchFailsOnlyStrictly() throws IOException {
+        List<Todo> todos = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            todos.add(new Todo(TodoId.random(), "Todo " + i, false, 300 - i));
+        }
+        byte[] bytes = snapshot(todos);
+        // Inside the first block, past the header and its length
+        bytes[16 + 4 + 20] ^= 0xff;
+
+        assertEquals(300 - 256, TodoCodec.readSnapshot(input(bytes)).size());
+        try {
+            TodoCodec.readSnapshot(input(bytes), true);
+            fail();
+        } catch (IOException expected) {
+            // Damaged
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void plainSnapshotWithANegativeCountFails() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x544f444f);
+        out.writeInt(1);
+        out.writeInt(-5);
+        TodoCodec.readSnapshot(input(bytes.toByteArray()));
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] snapshot(List<Todo> todos) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TodoCodec.writeSnapshot(out, todos);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static List<Todo> readCsv(String csv) throws IOException {
+        ArrayList<Todo> todos = new ArrayList<>();
+        TodoCodec.readCsv(new StringReader(csv), todos::add);
+        return todos;
+    }
+
+    // Through the import entry point, which tells the formats apart.
+    private static List<Todo> importFile(String file) throws IOException {
+        ArrayList<Todo> todos = new ArrayList<>();
+        TodoTransfer.read(new StringReader(file), todos::addAll, count -> { });
+        return todos;
+    }
+
+    private static void assertSameTodo(Todo expected, Todo actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.isCompleted(), actual.isCompleted());
+        assertEquals(expected.getCreated(), actual.getCreated());
+        assertEquals(expected.getDue(), actual.getDue());
+    }
+}
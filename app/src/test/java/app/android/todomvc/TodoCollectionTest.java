@@ -0,0 +1,129 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TodoCollectionTest {
+
+    @Test
+    public void addingInOrderStaysBalanced() {
+        TodoCollection todos = TodoCollection.empty(true);
+        for (int i = 1; i <= 1024; i++) {
+            todos = todos.with(todo(i));
+            assertBalanced(todos);
+        }
+        assertEquals(1024, todos.size());
+        assertEquals(1024, todos.get(0).getOrder());
+        assertEquals(1, todos.get(1023).getOrder());
+    }
+
+    @Test
+    public void removingMostTodosStaysBalanced() {
+        ArrayList<Todo> list = new ArrayList<>();
+        for (int i = 1024; i >= 1; i--) {
+            list.add(todo(i));
+        }
+        TodoCollection todos = TodoCollection.of(list, true);
+        for (Todo todo : list) {
+            if (todo.getOrder() % 32 != 0) {
+                todos = todos.without(todo);
+                assertBalanced(todos);
+            }
+        }
+        assertEquals(32, todos.size());
+        assertEquals(1024, todos.get(0).getOrder());
+        assertEquals(32, todos.get(31).getOrder());
+    }
+
+    @Test
+    public void matchesASortedListThroughRandomChanges() {
+        Random random = new Random(42);
+        ArrayList<Todo> expected = new ArrayList<>();
+        TodoCollection todos = TodoCollection.empty(true);
+        for (int i = 0; i < 2000; i++) {
+            if (!expected.isEmpty() && random.nextInt(3) == 0) {
+                Todo todo = expected.remove(random.nextInt(expected.size()));
+                todos = todos.without(todo);
+            } else {
+                // Few orders, so many todos share one and are ordered by id
+                Todo todo = todo(1 + random.nextInt(50));
+                expected.add(todo);
+                todos = todos.with(todo);
+            }
+            Collections.sort(expected, TodoCollection.BY_ORDER);
+            assertBalanced(todos);
+        }
+
+        assertEquals(expected, new ArrayList<>(todos));
+        for (int i = 0; i < expected.size(); i++) {
+            Todo todo = expected.get(i);
+            assertSame(todo, todos.get(i));
+            assertEquals(i, todos.indexOf(todo));
+            assertSame(todo, todos.get(todo.getId()));
+        }
+    }
+
+    @Test
+    public void lookupsOfMissingTodos() {
+        Todo todo = todo(1);
+        TodoCollection todos = TodoCollection.of(Collections.singletonList(todo), true);
+
+        assertEquals(-1, todos.indexOf(todo(1)));
+        assertEquals(-1, todos.indexOf(todo.withOrder(2)));
+        assertEquals(-1, todos.indexOf("todo"));
+        assertNull(todos.get(TodoId.random()));
+        assertSame(todos, todos.without(todo(1)));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPastTheEndThrows() {
+        TodoCollection.of(Collections.singletonList(todo(1)), false).get(1);
+    }
+
+    @Test
+    public void withReplacesTheTodoWithTheSameIdAndOrder() {
+        Todo todo = todo(1);
+        TodoCollection todos = TodoCollection.of(Collections.singletonList(todo), true);
+        Todo renamed = todo.withTitle("Renamed");
+
+        TodoCollection updated = todos.with(renamed);
+
+        assertEquals(1, updated.size());
+        assertSame(renamed, updated.get(0));
+        assertSame(renamed, updated.get(todo.getId()));
+    }
+
+    @Test
+    public void olderVersionsAreUnchanged() {
+        List<Todo> list = new ArrayList<>();
+        for (int i = 10; i >= 1; i--) {
+            list.add(todo(i));
+        }
+        TodoCollection before = TodoCollection.of(list, true);
+
+        TodoCollection after = before.with(todo(11)).without(list.get(3)).without(list.get(7));
+
+        assertEquals(list, new ArrayList<>(before));
+        assertSame(list.get(3), before.get(list.get(3).getId()));
+        assertEquals(9, after.size());
+        assertNull(after.get(list.get(3).getId()));
+    }
+
+    private static Todo todo(long order) {
+        return new Todo(TodoId.random(), "Todo " + order, false, order);
+    }
+
+    // An AVL tree of n nodes is at most about 1.44 log2(n + 2) high.
+    private static void assertBalanced(TodoCollection todos) {
+        double bound = 1.4405 * Math.log(todos.size() + 2) / Math.log(2) - 0.3277;
+        assertTrue(todos.height() + " > " + bound, todos.height() <= bound);
+    }
+}
@@ -0,0 +1,256 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+// Two devices, each with a database of its own, synced through one in-process
+// server. Each device reads a clock of its own, which the tests move by hand.
+@RunWith(AndroidJUnit4.class)
+public class TodoDatabaseSyncTest {
+
+    private static final String NAME_A = "sync-test-a.db";
+    private static final String NAME_B = "sync-test-b.db";
+    private static final long LIST_ID = TodoList.DEFAULT_ID;
+    private static final long START = 1_700_000_000_000L;
+
+    private Context context;
+    private TodoLoopbackServer server;
+    private TodoDatabase a;
+    private TodoDatabase b;
+    private long clockA = START;
+    private long clockB = START;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(NAME_A);
+        context.deleteDatabase(NAME_B);
+        server = new TodoLoopbackServer();
+        a = openA();
+        b = openB();
+    }
+
+    @After
+    public void tearDown() {
+        a.close();
+        b.close();
+        context.deleteDatabase(NAME_A);
+        context.deleteDatabase(NAME_B);
+    }
+
+    @Test
+    public void concurrentRenamesKeepTheLaterOne() throws IOException {
+        Todo todo = add(a, "Buy milk");
+        syncAll();
+
+        clockA += 1000;
+        apply(a, TodoOp.rename(todo.getId(), "Buy oat milk"));
+        clockB += 2000;
+        apply(b, TodoOp.rename(todo.getId(), "Buy soy milk"));
+        syncAll();
+
+        assertEquals("Buy soy milk", find(a, todo.getId()).getTitle());
+        assertEquals(describe(a), describe(b));
+    }
+
+    @Test
+    public void renameAndToggleOfTheSameTodoBothSurvive() throws IOException {
+        Todo todo = add(a, "Buy milk");
+        syncAll();
+
+        clockA += 1000;
+        apply(a, TodoOp.rename(todo.getId(), "Buy oat milk"));
+        clockB += 1000;
+        apply(b, TodoOp.toggle(todo.getId(), true));
+        syncAll();
+
+        Todo merged = find(b, todo.getId());
+        assertEquals("Buy oat milk", merged.getTitle());
+        assertTrue(merged.isCompleted());
+        assertEquals(describe(a), describe(b));
+    }
+
+    @Test
+    public void editAfterDeleteBringsTheTodoBack() throws IOException {
+        Todo todo = add(a, "Buy milk");
+        syncAll();
+
+        clockA += 1000;
+        apply(a, TodoOp.delete(todo.getId()));
+        clockB += 2000;
+        apply(b, TodoOp.rename(todo.getId(), "Buy oat milk"));
+        syncAll();
+
+        assertEquals("Buy oat milk", find(a, todo.getId()).getTitle());
+        assertEquals(describe(a), describe(b));
+    }
+
+    @Test
+    public void deleteAfterEditRemovesTheTodo() throws IOException {
+        Todo todo = add(a, "Buy milk");
+        Todo other = add(a, "Walk the dog");
+        syncAll();
+
+        clockB += 1000;
+        apply(b, TodoOp.rename(todo.getId(), "Buy oat milk"));
+        clockA += 2000;
+        apply(a, TodoOp.delete(todo.getId()));
+        syncAll();
+
+        assertNull(find(a, todo.getId()));
+        assertNull(find(b, todo.getId()));
+        assertEquals(other.getTitle(), find(b, other.getId()).getTitle());
+        assertEquals(describe(a), describe(b));
+    }
+
+    @Test
+    public void stampsKeepRisingPastAClockThatIsAhead() throws IOException {
+        Todo todo = add(a, "Buy milk");
+        syncAll();
+
+        // A's clock is an hour ahead, so its rename is stamped an hour from now.
+        clockA += 3_600_000;
+        apply(a, TodoOp.rename(todo.getId(), "Buy oat milk"));
+        syncAll();
+
+        // B renames after it has seen that one, and after a restart that forgets
+        // the stamps it has seen, so a rename by the wall clock would lose.
+        b.close();
+        b = openB();
+        clockB += 1000;
+        apply(b, TodoOp.rename(todo.getId(), "Buy soy milk"));
+        syncAll();
+
+        assertEquals("Buy soy milk", find(a, todo.getId()).getTitle());
+        assertEquals(describe(a), describe(b));
+    }
+
+    @Test
+    public void replayingABatchChangesNothing() throws IOException {
+        Todo todo = add(a, "Buy milk");
+        add(a, "Walk the dog");
+        apply(a, TodoOp.toggle(todo.getId(), true));
+
+        // A's request reaches the server twice, e.g. because the first response was
+        // lost and A retried.
+        TodoSync.Batch local = a.readChanges();
+        byte[] request = TodoCodec.encodeBatch(new TodoSync.Batch(a.readSyncCursor(), local.getChanges()));
+        server.exchange(request);
+        long serverSeq = server.getReplica().getSeq();
+        server.exchange(request);
+        assertEquals(serverSeq, server.getReplica().getSeq());
+        a.sync(server);
+
+        // B merges the same response twice.
+        TodoSync.Batch remote = TodoSync.exchange(server, b.readSyncCursor(), b.readChanges().getChanges());
+        TodoDatabase.Merged first = b.merge(remote, 0);
+        TodoDatabase.Merged second = b.merge(remote, 0);
+        assertFalse(first.getOps().isEmpty());
+        assertTrue(second.getOps().isEmpty());
+        assertFalse(second.isListsChanged());
+
+        syncAll();
+        assertEquals(2, b.readAll(LIST_ID).size());
+        assertEquals(describe(a), describe(b));
+        assertTrue(a.readChanges().getChanges().isEmpty());
+    }
+
+    @Test
+    public void aDeleteIsSentWhenSyncIsNextOn() throws IOException {
+        Todo todo = add(a, "Buy milk");
+        syncAll();
+
+        // Deleted with sync off, with maintenance run before it is on again
+        clockA += 1000;
+        apply(a, TodoOp.delete(todo.getId()));
+        a.maintain();
+        syncAll();
+
+        assertNull(find(b, todo.getId()));
+        assertEquals(describe(a), describe(b));
+    }
+
+    @Test
+    public void maintenanceKeepsOnlyTombstonesNotSentYet() throws IOException {
+        // Nothing of A's has reached the server, so it needs none of them.
+        apply(a, TodoOp.delete(add(a, "Buy milk").getId()));
+        assertEquals(1, countDeletes(a));
+        a.maintain();
+        assertEquals(0, countDeletes(a));
+
+        Todo todo = add(a, "Walk the dog");
+        a.sync(server);
+        apply(a, TodoOp.delete(todo.getId()));
+        a.maintain();
+        assertEquals(1, countDeletes(a));
+        a.sync(server);
+        assertEquals(0, countDeletes(a));
+    }
+
+    private static int countDeletes(TodoDatabase database) {
+        int deletes = 0;
+        for (TodoChange change : database.readChanges().getChanges()) {
+            if (change.isDeleted()) deletes++;
+        }
+        return deletes;
+    }
+
+    private TodoDatabase openA() {
+        return open(NAME_A, () -> clockA);
+    }
+
+    private TodoDatabase openB() {
+        return open(NAME_B, () -> clockB);
+    }
+
+    private TodoDatabase open(String name, LongSupplier clock) {
+        return new TodoDatabase(context, name, ArrayList::new, clock);
+    }
+
+    // Until neither has anything the other has not seen.
+    private void syncAll() throws IOException {
+        a.sync(server);
+        b.sync(server);
+        a.sync(server);
+    }
+
+    private static Todo add(TodoDatabase database, String title) {
+        Todo todo = new Todo(TodoId.random(), title, false, 0, START, 0);
+        apply(database, TodoOp.add(LIST_ID, todo));
+        return todo;
+    }
+
+    private static void apply(TodoDatabase database, TodoOp op) {
+        database.apply(Collections.singletonList(op));
+    }
+
+    private static Todo find(TodoDatabase database, TodoId id) {
+        for (Todo todo : database.readAll(LIST_ID)) {
+            if (todo.getId().equals(id)) return todo;
+        }
+        return null;
+    }
+
+    private static List<String> describe(TodoDatabase database) {
+        ArrayList<String> todos = new ArrayList<>();
+        for (Todo todo : database.readAll(LIST_ID)) {
+            todos.add(todo.getId() + " " + todo.getTitle() + " " + todo.isCompleted() + " " + todo.getOrder());
+        }
+        return todos;
+    }
+}
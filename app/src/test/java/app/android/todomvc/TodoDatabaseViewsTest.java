@@ -0,0 +1,274 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+// The list views as the app reads them: pages and counts straight from the
+// indexes, and the changes apply() reports for undo and search.
+@RunWith(AndroidJUnit4.class)
+public class TodoDatabaseViewsTest {
+
+    private static final String NAME = "views-test.db";
+    private static final long LIST_ID = TodoList.DEFAULT_ID;
+    private static final long OTHER_LIST_ID = 2;
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final TodoQuery ACTIVE = TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE);
+    private static final TodoQuery COMPLETED = TodoQuery.ALL.withStatus(TodoQuery.Status.COMPLETED);
+
+    private Context context;
+    private TodoDatabase database;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(NAME);
+        database = new TodoDatabase(context, NAME, ArrayList::new, () -> NOW);
+        database.createList(OTHER_LIST_ID, "Other");
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+        context.deleteDatabase(NAME);
+    }
+
+    @Test
+    public void addsWithoutAnOrderGoOnTopOfTheirList() {
+        Todo first = add(LIST_ID, "One");
+        add(OTHER_LIST_ID, "Elsewhere");
+        add(OTHER_LIST_ID, "Elsewhere too");
+        Todo second = add(LIST_ID, "Two");
+
+        List<Todo> all = database.readAll(LIST_ID);
+        assertEquals(Arrays.asList(second.getId(), first.getId()), ids(all));
+        assertEquals(Todo.ORDER_GAP, all.get(1).getOrder());
+        assertEquals(2 * Todo.ORDER_GAP, all.get(0).getOrder());
+    }
+
+    @Test
+    public void eachStatusViewIsPagedInDisplayOrder() {
+        ArrayList<TodoId> all = new ArrayList<>();
+        ArrayList<TodoId> completed = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Todo todo = add(LIST_ID, "Todo " + i);
+            all.add(0, todo.getId());
+            if (i % 3 == 0) {
+                apply(TodoOp.toggle(todo.getId(), true));
+                completed.add(0, todo.getId());
+            }
+        }
+        add(OTHER_LIST_ID, "Elsewhere");
+        ArrayList<TodoId> active = new ArrayList<>(all);
+        active.removeAll(completed);
+
+        assertEquals(30, database.count(LIST_ID, TodoQuery.ALL));
+        assertEquals(20, database.count(LIST_ID, ACTIVE));
+        assertEquals(10, database.count(LIST_ID, COMPLETED));
+        assertEquals(all.subList(5, 15), ids(database.readPage(LIST_ID, TodoQuery.ALL, 5, 10)));
+        assertEquals(active.subList(15, 20), ids(database.readPage(LIST_ID, ACTIVE, 15, 10)));
+        assertEquals(completed, ids(database.readPage(LIST_ID, COMPLETED, 0, 100)));
+    }
+
+    @Test
+    public void dateViewsHoldTheActiveTodosDueThen() {
+        Todo overdue = add(LIST_ID, "Overdue");
+        apply(TodoOp.setDue(overdue.getId(), NOW - 60_000));
+        Todo later = add(LIST_ID, "Later");
+        apply(TodoOp.setDue(later.getId(), TodoFilter.startOfDay(NOW, 2)));
+        Todo done = add(LIST_ID, "Done");
+        apply(TodoOp.setDue(done.getId(), NOW - 60_000));
+        apply(TodoOp.toggle(done.getId(), true));
+        add(LIST_ID, "Whenever");
+
+        assertEquals(1, database.count(LIST_ID, TodoFilter.OVERDUE.toQuery(NOW)));
+        assertEquals(Arrays.asList(overdue.getId()), ids(database.readPage(LIST_ID, TodoFilter.OVERDUE.toQuery(NOW), 0, 10)));
+        assertEquals(TodoFilter.startOfDay(NOW, 2), database.readNextDue(LIST_ID, NOW));
+        assertEquals(0, database.readNextDue(OTHER_LIST_ID, NOW));
+    }
+
+    @Test
+    public void queriesHoldWhatTheyMatchInDisplayOrder() {
+        Random random = new Random(7);
+        ArrayList<Todo> all = new ArrayList<>();
+        for (int i = 0; i < 80; i++) {
+            long created = NOW - random.nextInt(20) * DAY;
+            long due = random.nextInt(3) == 0 ? 0 : NOW + (random.nextInt(20) - 10) * DAY;
+            Todo todo = add(LIST_ID, new Todo(TodoId.random(), "Todo " + i, false, 0, created, due));
+            if (random.nextInt(3) == 0) {
+                todo = apply(TodoOp.toggle(todo.getId(), true)).getAfter().get(0);
+            }
+            all.add(0, todo);
+        }
+        add(OTHER_LIST_ID, new Todo(TodoId.random(), "Elsewhere", false, 0, NOW, NOW));
+
+        List<TodoQuery> queries = new ArrayList<>();
+        for (TodoQuery status : Arrays.asList(TodoQuery.ALL, ACTIVE, COMPLETED)) {
+            queries.add(status.withDue(1, 0));
+            queries.add(status.withDue(NOW - 3 * DAY, NOW + 3 * DAY));
+            queries.add(status.withDue(0, NOW));
+            queries.add(status.withCreated(NOW - 5 * DAY, 0));
+            queries.add(status.withCreated(NOW - 15 * DAY, NOW - 5 * DAY).withDue(NOW, 0));
+        }
+        for (TodoQuery query : queries) {
+            ArrayList<TodoId> expected = new ArrayList<>();
+            for (Todo todo : all) {
+                if (query.matches(todo)) expected.add(todo.getId());
+            }
+            assertEquals(expected.size(), database.count(LIST_ID, query));
+            assertEquals(expected, ids(database.readPage(LIST_ID, query, 0, 100)));
+            int from = Math.min(3, expected.size());
+            assertEquals(expected.subList(from, Math.min(from + 5, expected.size())),
+                    ids(database.readPage(LIST_ID, query, from, 5)));
+        }
+    }
+
+    @Test
+    public void queriesAreReadFromAnIndex() {
+        for (int i = 0; i < 20; i++) {
+            add(LIST_ID, new Todo(TodoId.random(), "Todo " + i, i % 2 == 0, 0, NOW - i * DAY, NOW + i * DAY));
+        }
+        List<TodoQuery> queries = Arrays.asList(TodoQuery.ALL, ACTIVE, COMPLETED,
+                TodoFilter.OVERDUE.toQuery(NOW), TodoFilter.TODAY.toQuery(NOW),
+                TodoQuery.ALL.withDue(NOW, NOW + DAY), COMPLETED.withCreated(NOW - DAY, 0));
+        for (TodoQuery query : queries) {
+            for (String step : database.explainPage(LIST_ID, query)) {
+                // A step that reads the table goes by one of its indexes.
+                if (step.contains("todos")) {
+                    assertTrue(step, step.contains("INDEX"));
+                }
+            }
+        }
+        // The status views are read in index order, without a sort.
+        for (TodoQuery query : Arrays.asList(TodoQuery.ALL, ACTIVE, COMPLETED)) {
+            for (String step : database.explainPage(LIST_ID, query)) {
+                assertFalse(step, step.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wordsAreNotQueriedFromTheDatabase() {
+        database.count(LIST_ID, TodoQuery.ALL.withWords("milk"));
+    }
+
+    @Test
+    public void appliedHoldsWhatChangedAndHowToUndoIt() {
+        Todo todo = add(LIST_ID, "Buy milk");
+
+        TodoDatabase.Applied applied = database.apply(Arrays.asList(
+                TodoOp.toggle(todo.getId(), true),
+                TodoOp.rename(todo.getId(), "Buy oat milk"),
+                // Changes nothing, so it is left out
+                TodoOp.toggle(todo.getId(), true)));
+
+        assertEquals(2, applied.getOps().size());
+        assertEquals(Arrays.asList(todo.getId(), todo.getId()), ids(applied.getBefore()));
+        Todo after = applied.getAfter().get(1);
+        assertEquals("Buy oat milk", after.getTitle());
+        assertTrue(after.isCompleted());
+        assertEquals(TodoOp.RENAME, applied.getInverse().get(0).getType());
+
+        database.apply(applied.getInverse());
+        assertEquals(Arrays.asList(describe(todo)), describe());
+    }
+
+    @Test
+    public void clearCompletedIsUndoneInPlace() {
+        for (int i = 0; i < 6; i++) {
+            Todo todo = add(LIST_ID, "Todo " + i);
+            if (i % 2 == 0) apply(TodoOp.toggle(todo.getId(), true));
+        }
+        List<String> before = describe();
+
+        TodoDatabase.Applied applied = apply(TodoOp.clearCompleted(LIST_ID));
+
+        assertEquals(3, applied.getRemoved());
+        assertEquals(Arrays.asList(null, null, null), applied.getAfter());
+        assertEquals(3, database.count(LIST_ID, TodoQuery.ALL));
+        database.apply(applied.getInverse());
+        assertEquals(before, describe());
+        assertTrue(apply(TodoOp.delete(TodoId.random())).isEmpty());
+    }
+
+    @Test
+    public void movesKeepTheListInTheOrderAsked() {
+        // Enough todos that the rows around a move are read in more than one block
+        ArrayList<TodoId> expected = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            expected.add(0, add(LIST_ID, "Todo " + i).getId());
+        }
+        add(OTHER_LIST_ID, "Elsewhere");
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            // Mostly into the same gap, so it runs out and neighbours are respaced
+            TodoId id = expected.remove(random.nextInt(expected.size()));
+            int index = random.nextInt(4) == 0 ? random.nextInt(expected.size() + 1) : 100;
+            TodoId aboveId = index > 0 ? expected.get(index - 1) : null;
+            expected.add(index, id);
+
+            database.applyPlans(Collections.singletonList(db -> db.planMove(id, aboveId)));
+
+            assertEquals(expected, ids(database.readAll(LIST_ID)));
+        }
+        assertEquals(1, database.count(OTHER_LIST_ID, TodoQuery.ALL));
+    }
+
+    @Test
+    public void movingATodoWhereItIsOrBelowOneElsewherePlansNothing() {
+        Todo bottom = add(LIST_ID, "Bottom");
+        Todo top = add(LIST_ID, "Top");
+        Todo elsewhere = add(OTHER_LIST_ID, "Elsewhere");
+
+        assertTrue(database.planMove(top.getId(), null).isEmpty());
+        assertTrue(database.planMove(bottom.getId(), top.getId()).isEmpty());
+        assertTrue(database.planMove(bottom.getId(), elsewhere.getId()).isEmpty());
+    }
+
+    private Todo add(long listId, String title) {
+        return add(listId, new Todo(TodoId.random(), title, false, 0, NOW, 0));
+    }
+
+    private Todo add(long listId, Todo todo) {
+        return database.apply(Collections.singletonList(TodoOp.add(listId, todo))).getAfter().get(0);
+    }
+
+    private TodoDatabase.Applied apply(TodoOp op) {
+        return database.apply(Collections.singletonList(op));
+    }
+
+    private List<String> describe() {
+        ArrayList<String> todos = new ArrayList<>();
+        for (Todo todo : database.readAll(LIST_ID)) {
+            todos.add(describe(todo));
+        }
+        return todos;
+    }
+
+    private static String describe(Todo todo) {
+        return todo.getId() + " " + todo.getTitle() + " " + todo.isCompleted() + " " + todo.getOrder() + " "
+                + todo.getDue();
+    }
+
+    private static List<TodoId> ids(List<Todo> todos) {
+        ArrayList<TodoId> ids = new ArrayList<>();
+        for (Todo todo : todos) {
+            ids.add(todo.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,156 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class TodoHistoryTest {
+
+    private static final TodoId ID = TodoId.random();
+
+    @Test
+    public void undoReturnsTheInverseAndRedoTheOps() {
+        TodoHistory history = new TodoHistory(10, 100);
+        List<TodoOp> ops = ops(TodoOp.toggle(ID, true));
+        List<TodoOp> inverse = ops(TodoOp.toggle(ID, false));
+
+        long id = history.record(ops, inverse);
+
+        assertEquals(id, history.getUndoId());
+        assertSame(inverse, history.undo(id));
+        assertEquals(0, history.getUndoId());
+        assertSame(ops, history.redo(id));
+        assertEquals(id, history.getUndoId());
+    }
+
+    @Test
+    public void onlyTheLatestChangeCanBeUndone() {
+        TodoHistory history = new TodoHistory(10, 100);
+        long first = history.record(ops(TodoOp.rename(ID, "One")), ops(TodoOp.rename(ID, "")));
+        long second = history.record(ops(TodoOp.rename(ID, "Two")), ops(TodoOp.rename(ID, "One")));
+
+        assertNull(history.undo(first));
+        assertEquals("One", history.undo(second).get(0).getTitle());
+        // Now the first is the latest
+        assertEquals("", history.undo(first).get(0).getTitle());
+        assertNull(history.undo(first));
+    }
+
+    @Test
+    public void onlyTheLastUndoneChangeCanBeRedone() {
+        TodoHistory history = new TodoHistory(10, 100);
+        long first = history.record(ops(TodoOp.rename(ID, "One")), ops(TodoOp.rename(ID, "")));
+        long second = history.record(ops(TodoOp.rename(ID, "Two")), ops(TodoOp.rename(ID, "One")));
+        history.undo(second);
+        history.undo(first);
+
+        assertNull(history.redo(second));
+        assertEquals("One", history.redo(first).get(0).getTitle());
+        assertEquals("Two", history.redo(second).get(0).getTitle());
+        assertNull(history.redo(second));
+    }
+
+    @Test
+    public void aNewChangeDropsWhatCouldBeRedone() {
+        TodoHistory history = new TodoHistory(10, 100);
+        long undone = history.record(ops(TodoOp.toggle(ID, true)), ops(TodoOp.toggle(ID, false)));
+        history.undo(undone);
+
+        long next = history.record(ops(TodoOp.rename(ID, "New")), ops(TodoOp.rename(ID, "Old")));
+
+        assertNull(history.redo(undone));
+        assertEquals(next, history.getUndoId());
+    }
+
+    @Test
+    public void changeIdsAreNeverReused() {
+        TodoHistory one = new TodoHistory(10, 100);
+        TodoHistory other = new TodoHistory(10, 100);
+        long id = one.record(ops(TodoOp.toggle(ID, true)), ops(TodoOp.toggle(ID, false)));
+        one.undo(id);
+        long again = one.record(ops(TodoOp.toggle(ID, true)), ops(TodoOp.toggle(ID, false)));
+        long elsewhere = other.record(ops(TodoOp.toggle(ID, true)), ops(TodoOp.toggle(ID, false)));
+
+        assertNotEquals(id, again);
+        assertNotEquals(again, elsewhere);
+        // An undo snackbar left over from another list finds nothing to undo here.
+        assertNull(other.undo(again));
+    }
+
+    @Test
+    public void theOldestChangesGoOnceThereAreTooMany() {
+        TodoHistory history = new TodoHistory(3, 100);
+        for (int i = 0; i < 5; i++) {
+            history.record(ops(TodoOp.rename(ID, "" + i)), ops(TodoOp.rename(ID, "")));
+        }
+
+        assertEquals(3, undoAll(history));
+    }
+
+    @Test
+    public void theOldestChangesGoOnceTheyHoldTooManyOps() {
+        TodoHistory history = new TodoHistory(10, 10);
+        for (int i = 0; i < 4; i++) {
+            // Four ops each, counting the inverse
+            history.record(deletes(2), deletes(2));
+        }
+
+        assertEquals(2, undoAll(history));
+    }
+
+    @Test
+    public void theLatestChangeIsKeptHoweverLarge() {
+        TodoHistory history = new TodoHistory(10, 10);
+        history.record(deletes(1), deletes(1));
+        List<TodoOp> inverse = deletes(50);
+
+        long id = history.record(deletes(50), inverse);
+
+        assertSame(inverse, history.undo(id));
+        assertEquals(0, history.getUndoId());
+    }
+
+    @Test
+    public void changesDroppedFromRedoNoLongerCountTowardsTheLimit() {
+        TodoHistory history = new TodoHistory(10, 8);
+        long first = history.record(deletes(2), deletes(2));
+        long second = history.record(deletes(2), deletes(2));
+        history.undo(second);
+
+        // Drops the second change, so the first still fits alongside this one.
+        long third = history.record(deletes(2), deletes(2));
+
+        assertEquals(third, history.getUndoId());
+        history.undo(third);
+        assertEquals(first, history.getUndoId());
+    }
+
+    // Undoes changes until there are none left; returns how many there were.
+    private static int undoAll(TodoHistory history) {
+        int count = 0;
+        for (long id = history.getUndoId(); id != 0; id = history.getUndoId()) {
+            history.undo(id);
+            count++;
+        }
+        return count;
+    }
+
+    private static List<TodoOp> deletes(int count) {
+        ArrayList<TodoOp> ops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ops.add(TodoOp.delete(TodoId.random()));
+        }
+        return ops;
+    }
+
+    private static List<TodoOp> ops(TodoOp... ops) {
+        return Collections.unmodifiableList(Arrays.asList(ops));
+    }
+}
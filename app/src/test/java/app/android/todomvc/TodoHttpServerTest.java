@@ -0,0 +1,92 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Round trips over HTTP, with a TodoLoopbackServer behind a local web server.
+public class TodoHttpServerTest {
+
+    private final TodoLoopbackServer loopback = new TodoLoopbackServer();
+    private HttpServer http;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        http.createContext("/sync", exchange -> {
+            byte[] response;
+            int status = 200;
+            try (InputStream in = exchange.getRequestBody()) {
+                response = loopback.exchange(readAll(in));
+            } catch (IOException e) {
+                response = new byte[0];
+                status = 400;
+            }
+            exchange.sendResponseHeaders(status, response.length == 0 ? -1 : response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        http.start();
+        url = "http://127.0.0.1:" + http.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        http.stop(0);
+    }
+
+    @Test
+    public void changesReachOtherReplicasThroughTheServer() throws IOException {
+        TodoSync.Server server = new TodoHttpServer(url + "/sync");
+        Todo todo = new Todo(TodoId.random(), "Buy milk", false, Todo.ORDER_GAP, 1, 0);
+        TodoChange sent = TodoChange.of(TodoList.DEFAULT_ID, todo, 1);
+
+        TodoSync.Batch first = TodoSync.exchange(server, 0, Collections.singletonList(sent));
+        TodoSync.Batch second = TodoSync.exchange(server, 0, Collections.emptyList());
+
+        // Not echoed to the replica that sent it, but sent to the next one
+        assertEquals(0, first.getChanges().size());
+        assertEquals(Collections.singletonList(sent), second.getChanges());
+        assertEquals(first.getSeq(), second.getSeq());
+    }
+
+    @Test(expected = IOException.class)
+    public void anAnswerOtherThanOkFailsTheRoundTrip() throws IOException {
+        new TodoHttpServer(url + "/nothing-here").exchange(new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void onlyHttpUrlsAreTaken() {
+        for (String bad : new String[] {"example.com/sync", "ftp://example.com/sync", "file:///sync"}) {
+            try {
+                new TodoHttpServer(bad);
+                fail(bad);
+            } catch (MalformedURLException expected) {
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,169 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TodoMovesTest {
+
+    @Test
+    public void moveToTopTakesTheNextOrder() {
+        Moves list = listOf(3 * Todo.ORDER_GAP, 2 * Todo.ORDER_GAP, Todo.ORDER_GAP);
+        Todo bottom = at(list, 2);
+
+        List<Todo> moved = list.planMove(bottom, null);
+
+        assertEquals(1, moved.size());
+        assertEquals(4 * Todo.ORDER_GAP, moved.get(0).getOrder());
+        apply(list, moved);
+        assertEquals(bottom.getId(), at(list, 0).getId());
+        assertOrdered(list);
+    }
+
+    @Test
+    public void moveToBottomTakesHalfTheLastOrder() {
+        Moves list = listOf(3 * Todo.ORDER_GAP, 2 * Todo.ORDER_GAP, Todo.ORDER_GAP);
+        Todo top = at(list, 0);
+
+        List<Todo> moved = list.planMove(top, at(list, 2));
+
+        assertEquals(1, moved.size());
+        assertEquals(Todo.ORDER_GAP / 2, moved.get(0).getOrder());
+        apply(list, moved);
+        assertEquals(top.getId(), at(list, 2).getId());
+        assertOrdered(list);
+    }
+
+    @Test
+    public void moveBetweenTakesTheMidpoint() {
+        Moves list = listOf(3 * Todo.ORDER_GAP, 2 * Todo.ORDER_GAP, Todo.ORDER_GAP);
+
+        List<Todo> moved = list.planMove(at(list, 0), at(list, 1));
+
+        assertEquals(1, moved.size());
+        assertEquals(Todo.ORDER_GAP + Todo.ORDER_GAP / 2, moved.get(0).getOrder());
+    }
+
+    @Test
+    public void moveToWhereItIsChangesNothing() {
+        Moves list = listOf(3 * Todo.ORDER_GAP, 2 * Todo.ORDER_GAP, Todo.ORDER_GAP);
+
+        assertTrue(list.planMove(at(list, 0), null).isEmpty());
+        assertTrue(list.planMove(at(list, 1), at(list, 0)).isEmpty());
+    }
+
+    @Test
+    public void crowdedNeighboursAreRespacedAroundTheGap() {
+        // No room between 1002 and 1001, but plenty above them
+        Moves list = listOf(1L << 30, 1002, 1001, 1000, 999);
+        Todo top = at(list, 0);
+        Todo bottom = at(list, 4);
+
+        List<Todo> moved = list.planMove(bottom, at(list, 1));
+
+        assertEquals(3, moved.size());
+        apply(list, moved);
+        assertEquals(bottom.getId(), at(list, 2).getId());
+        assertEquals(top.getOrder(), at(list, 0).getOrder());
+        assertEquals(1000, at(list, 4).getOrder());
+        assertOrdered(list);
+    }
+
+    @Test
+    public void crowdedNeighboursAtTheTopRiseAboveIt() {
+        Moves list = listOf(5, 4, 3, 2, 1);
+        Todo bottom = at(list, 4);
+
+        List<Todo> moved = list.planMove(bottom, at(list, 0));
+
+        apply(list, moved);
+        assertEquals(bottom.getId(), at(list, 1).getId());
+        assertOrdered(list);
+        // Room for moves into the gaps around it again
+        for (int i = 1; i <= 2; i++) {
+            assertTrue(at(list, i - 1).getOrder() - at(list, i).getOrder() >= 2);
+        }
+    }
+
+    @Test
+    public void ordersStayUniqueThroughManyMoves() {
+        ArrayList<Todo> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            expected.add(0, new Todo(TodoId.random(), "Todo " + i, false, (i + 1) * Todo.ORDER_GAP));
+        }
+        Moves list = new Moves(TodoCollection.of(expected, true));
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // Mostly into the same gap, so it runs out and neighbours are respaced
+            Todo todo = expected.get(random.nextInt(expected.size()));
+            expected.remove(todo);
+            int index = random.nextInt(4) == 0 ? random.nextInt(expected.size() + 1) : 10;
+            Todo above = index > 0 ? list.find(expected.get(index - 1).getId()) : null;
+            expected.add(index, todo);
+
+            apply(list, list.planMove(list.find(todo.getId()), above));
+
+            assertOrdered(list);
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getId(), at(list, j).getId());
+            }
+        }
+    }
+
+    // Todos in display order with the given orders, which must be descending.
+    private static Moves listOf(long... orders) {
+        ArrayList<Todo> todos = new ArrayList<>();
+        for (long order : orders) {
+            todos.add(new Todo(TodoId.random(), "Todo " + order, false, order));
+        }
+        return new Moves(TodoCollection.of(todos, true));
+    }
+
+    private static Todo at(Moves list, int index) {
+        return list.all.get(index);
+    }
+
+    private static void apply(Moves list, List<Todo> moved) {
+        for (Todo todo : moved) {
+            list.all = list.all.without(list.find(todo.getId())).with(todo);
+        }
+    }
+
+    // Orders are unique, positive, and descending down the list.
+    private static void assertOrdered(Moves list) {
+        TodoCollection all = list.all;
+        HashSet<Long> orders = new HashSet<>();
+        for (int i = 0; i < all.size(); i++) {
+            long order = all.get(i).getOrder();
+            assertTrue(order > 0);
+            assertTrue(orders.add(order));
+            if (i > 0) assertTrue(all.get(i - 1).getOrder() > order);
+        }
+    }
+
+    // A list in memory, moved around the way TodoDatabase.planMove() does it.
+    private static final class Moves {
+        TodoCollection all;
+
+        Moves(TodoCollection all) {
+            this.all = all;
+        }
+
+        Todo find(TodoId id) {
+            return all.get(id);
+        }
+
+        List<Todo> planMove(Todo todo, Todo above) {
+            TodoCollection rest = all.without(todo);
+            int index = above != null ? rest.indexOf(above) + 1 : 0;
+            if (index == all.indexOf(todo)) return Collections.emptyList();
+            return TodoMoves.planMove(todo, index, rest);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TodoQueryTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void everyCriterionSetMustHold() {
+        Todo todo = todo("Buy milk", false, NOW - DAY, NOW + DAY);
+        TodoQuery query = TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE)
+                .withDue(NOW, NOW + 2 * DAY)
+                .withCreated(NOW - 2 * DAY, NOW)
+                .withWords(" mil BU ");
+
+        assertTrue(query.matches(todo));
+        assertFalse(query.matches(todo.withCompleted(true)));
+        assertFalse(query.withDue(NOW, NOW + DAY).matches(todo));
+        assertFalse(query.withCreated(NOW - DAY + 1, 0).matches(todo));
+        assertFalse(query.withWords("milk bread").matches(todo));
+        assertFalse(query.withWords("ilk").matches(todo));
+    }
+
+    @Test
+    public void eachWithLeavesTheQueryItIsCalledOnAsItWas() {
+        TodoQuery active = TodoQuery.ALL.withStatus(TodoQuery.Status.ACTIVE);
+        TodoQuery due = active.withDue(1, NOW);
+
+        assertEquals(TodoQuery.Status.ANY, TodoQuery.ALL.getStatus());
+        assertFalse(active.hasDueRange());
+        assertTrue(due.hasDueRange());
+        assertEquals(TodoQuery.Status.ACTIVE, due.getStatus());
+        assertFalse(due.withDue(0, 0).hasDueRange());
+        assertFalse(due.withWords("  ").hasWords());
+    }
+
+    @Test
+    public void rangesIncludeFromAndExcludeToAndZeroLeavesAnEndOpen() {
+        Todo todo = todo("Pay rent", false, NOW, NOW);
+
+        assertTrue(TodoQuery.ALL.withDue(NOW, NOW + 1).matches(todo));
+        assertFalse(TodoQuery.ALL.withDue(NOW - 1, NOW).matches(todo));
+        assertTrue(TodoQuery.ALL.withDue(0, NOW + 1).matches(todo));
+        assertTrue(TodoQuery.ALL.withDue(NOW, 0).matches(todo));
+        assertTrue(TodoQuery.ALL.withCreated(NOW, 0).matches(todo));
+        assertFalse(TodoQuery.ALL.withCreated(0, NOW).matches(todo));
+    }
+
+    @Test
+    public void aTodoWithoutADueTimeIsInNoDueRange() {
+        Todo todo = todo("Whenever", false, NOW, 0);
+
+        assertTrue(TodoQuery.ALL.matches(todo));
+        assertFalse(TodoQuery.ALL.withDue(1, 0).matches(todo));
+        assertFalse(TodoQuery.ALL.withDue(0, NOW).matches(todo));
+    }
+
+    @Test
+    public void filtersAreQueriesOfTheStatusAndDueTimes() {
+        long today = TodoFilter.startOfDay(NOW, 0);
+        Todo overdue = todo("Overdue", false, NOW, NOW - 1);
+        Todo dueLaterToday = todo("Later today", false, NOW, TodoFilter.startOfDay(NOW, 1) - 1);
+        Todo dueTomorrow = todo("Tomorrow", false, NOW, TodoFilter.startOfDay(NOW, 1));
+        Todo done = todo("Done", true, NOW, NOW - 1);
+
+        assertTrue(TodoFilter.ALL.toQuery(NOW).matches(done));
+        assertTrue(TodoFilter.COMPLETED.toQuery(NOW).matches(done));
+        assertFalse(TodoFilter.ACTIVE.toQuery(NOW).matches(done));
+        assertTrue(TodoFilter.OVERDUE.toQuery(NOW).matches(overdue));
+        assertFalse(TodoFilter.OVERDUE.toQuery(NOW).matches(dueLaterToday));
+        assertFalse(TodoFilter.OVERDUE.toQuery(NOW).matches(done));
+        assertFalse(TodoFilter.OVERDUE.toQuery(NOW).matches(todo("Whenever", false, NOW, 0)));
+        assertEquals(today <= NOW - 1, TodoFilter.TODAY.toQuery(NOW).matches(overdue));
+        assertTrue(TodoFilter.TODAY.toQuery(NOW).matches(dueLaterToday));
+        assertFalse(TodoFilter.TODAY.toQuery(NOW).matches(dueTomorrow));
+    }
+
+    private static Todo todo(String title, boolean completed, long created, long due) {
+        return new Todo(TodoId.random(), title, completed, Todo.ORDER_GAP, created, due);
+    }
+}
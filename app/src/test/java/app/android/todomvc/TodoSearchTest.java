@@ -0,0 +1,224 @@
+package app.android.todomvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TodoSearchTest {
+
+    private TodoSearch search;
+    private TodoCollection all;
+
+    @Before
+    public void setUp() {
+        search = new TodoSearch();
+        all = TodoCollection.empty(true);
+    }
+
+    @After
+    public void tearDown() {
+        search.close();
+    }
+
+    @Test
+    public void tokenizeSplitsOnAnythingButLettersAndDigits() {
+        assertEquals(Arrays.asList("buy", "2", "litres", "of", "milk", "gr\u00f6\u00dfe"),
+                TodoSearch.tokenize("Buy 2 litres-of  MILK! (Gr\u00f6\u00dfe)"));
+        assertTrue(TodoSearch.tokenize(" ,.- ").isEmpty());
+    }
+
+    @Test
+    public void everyWordMatchesAsAPrefix() throws InterruptedException {
+        Todo milk = add("Buy milk and bread");
+        Todo mill = add("Visit the mill");
+        add("Walk the dog");
+
+        assertEquals(Arrays.asList(mill, milk), search("mil"));
+        assertEquals(Arrays.asList(milk), search("BREAD mil"));
+        assertEquals(Arrays.asList(mill), search("the mi"));
+        assertTrue(search("milk dog").isEmpty());
+        assertTrue(search("ilk").isEmpty());
+    }
+
+    @Test
+    public void resultsAreInDisplayOrder() throws InterruptedException {
+        Todo first = add("Call one");
+        Todo second = add("Call two");
+        Todo third = add("Call three");
+
+        // Newest first, whatever order the doc ids are in
+        assertEquals(Arrays.asList(third, second, first), search("call"));
+    }
+
+    @Test
+    public void statusFilterUsesTheCompletedBitmap() throws InterruptedException {
+        Todo active = add("Pay rent");
+        Todo done = add("Pay tax");
+        replace(done.withCompleted(true));
+        search.update(all.get(done.getId()));
+
+        assertEquals(2, search("pay", TodoFilter.ALL).size());
+        assertEquals(Arrays.asList(active), search("pay", TodoFilter.ACTIVE));
+        assertEquals(Arrays.asList(done.getId()), ids(search("pay", TodoFilter.COMPLETED)));
+    }
+
+    @Test
+    public void resultsAreTheTodosAsLastUpdated() throws InterruptedException {
+        Todo bottom = add("Call one");
+        Todo top = add("Call two");
+
+        Todo moved = bottom.withOrder(top.getOrder() + Todo.ORDER_GAP).withCompleted(true);
+        search.update(moved);
+
+        assertEquals(Arrays.asList(moved, top), search("call"));
+        assertEquals(Arrays.asList(moved), search("call", TodoFilter.COMPLETED));
+    }
+
+    @Test
+    public void dateFiltersCheckTheDueTimesOfWhatIsLeft() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Todo overdue = add(new Todo(TodoId.random(), "Pay rent", false, 0, now, now - 60_000));
+        add(new Todo(TodoId.random(), "Pay tax", false, 0, now, TodoFilter.startOfDay(now, 2)));
+        add("Pay back Sam");
+
+        assertEquals(Arrays.asList(overdue), search("pay", TodoFilter.OVERDUE));
+    }
+
+    @Test
+    public void timeRangesCombineWithTheWordsAndStatus() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long day = 24 * 60 * 60 * 1000L;
+        Todo old = add(new Todo(TodoId.random(), "Pay rent", false, 0, now - 10 * day, now + day));
+        Todo recent = add(new Todo(TodoId.random(), "Pay tax", false, 0, now - day, now + 3 * day));
+        Todo recentDone = add(new Todo(TodoId.random(), "Pay back Sam", false, 0, now - day, 0));
+        replace(recentDone.withCompleted(true));
+        search.update(all.get(recentDone.getId()));
+        add(new Todo(TodoId.random(), "Call Sam", false, 0, now, now + day));
+
+        TodoQuery pay = TodoQuery.ALL.withWords("pay");
+        assertEquals(ids(Arrays.asList(recentDone, recent)), ids(search(pay.withCreated(now - 2 * day, 0))));
+        assertEquals(Arrays.asList(recent), search(pay.withCreated(now - 2 * day, 0).withDue(1, 0)));
+        assertEquals(Arrays.asList(old), search(pay.withDue(now, now + 2 * day)));
+        assertEquals(Arrays.asList(old), search(pay.withCreated(0, now - 2 * day)
+                .withStatus(TodoQuery.Status.ACTIVE)));
+        assertTrue(search(pay.withCreated(now - 2 * day, 0).withStatus(TodoQuery.Status.COMPLETED)
+                .withDue(1, 0)).isEmpty());
+    }
+
+    @Test
+    public void addingARemovedTodoOrRenamingOneInvalidatesTheCachedQuery() throws InterruptedException {
+        Todo milk = add("Buy milk");
+        assertEquals(1, search("buy").size());
+
+        // The same query again, after each kind of change to the index
+        Todo eggs = add("Buy eggs");
+        assertEquals(Arrays.asList(eggs, milk), search("buy"));
+
+        remove(milk);
+        assertEquals(Arrays.asList(eggs), search("buy"));
+
+        Todo renamed = eggs.withTitle("Sell eggs");
+        search.remove(eggs);
+        search.add(renamed);
+        replace(renamed);
+        assertTrue(search("buy").isEmpty());
+        assertEquals(Arrays.asList(renamed), search("sell"));
+    }
+
+    @Test
+    public void resultsStayRightAsDocIdsAreFreedAndReused() throws InterruptedException {
+        ArrayList<Todo> kept = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Todo todo = add("Todo " + i);
+            if (i % 3 == 0) {
+                remove(todo);
+            } else {
+                kept.add(0, todo);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            kept.add(0, add("Todo new " + i));
+        }
+
+        assertEquals(kept, search("todo"));
+        assertEquals(10, search("new").size());
+    }
+
+    @Test
+    public void resetReplacesTheIndex() throws InterruptedException {
+        add("Buy milk");
+        Todo other = new Todo(TodoId.random(), "Buy bread", false, Todo.ORDER_GAP);
+        all = TodoCollection.of(Arrays.asList(other), true);
+        search.reset(all);
+
+        assertEquals(Arrays.asList(other), search("buy"));
+    }
+
+    @Test
+    public void aNewerSearchCancelsOneThatHasNotStarted() throws InterruptedException {
+        add("Buy milk");
+        BlockingQueue<Integer> generations = new ArrayBlockingQueue<>(2);
+        search.search(TodoQuery.ALL.withWords("bu"), 1, (generation, results) -> generations.add(generation));
+        search.search(TodoQuery.ALL.withWords("buy"), 2, (generation, results) -> generations.add(generation));
+
+        assertEquals(Integer.valueOf(2), generations.poll(5, TimeUnit.SECONDS));
+        assertEquals(null, generations.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    private Todo add(String title) {
+        return add(new Todo(TodoId.random(), title, false));
+    }
+
+    // Puts the todo on top, like the database does, and indexes it.
+    private Todo add(Todo todo) {
+        long order = all.isEmpty() ? Todo.ORDER_GAP : all.get(0).getOrder() + Todo.ORDER_GAP;
+        Todo placed = todo.withOrder(order);
+        all = all.with(placed);
+        search.add(placed);
+        return placed;
+    }
+
+    private void remove(Todo todo) {
+        all = all.without(todo);
+        search.remove(todo);
+    }
+
+    // Swaps in a new version of a todo with the same id and order.
+    private void replace(Todo updated) {
+        all = all.with(updated);
+    }
+
+    private List<Todo> search(String query) throws InterruptedException {
+        return search(query, TodoFilter.ALL);
+    }
+
+    private List<Todo> search(String query, TodoFilter filter) throws InterruptedException {
+        return search(filter.toQuery(System.currentTimeMillis()).withWords(query));
+    }
+
+    // Waits out the debounce for the results.
+    private List<Todo> search(TodoQuery query) throws InterruptedException {
+        BlockingQueue<TodoCollection> results = new ArrayBlockingQueue<>(1);
+        search.search(query, 0, (generation, found) -> results.add(found));
+        TodoCollection found = results.poll(5, TimeUnit.SECONDS);
+        if (found == null) throw new AssertionError("No results for " + query.getWords());
+        return new ArrayList<>(found);
+    }
+
+    private static List<TodoId> ids(List<Todo> todos) {
+        ArrayList<TodoId> ids = new ArrayList<>();
+        for (Todo todo : todos) {
+            ids.add(todo.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,69 @@
+package app.android.todomvc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Encoding and decoding whole lists in the forms older versions saved, which are
+// read once when they are imported.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TodoCodecBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int size;
+
+    private List<Todo> todos;
+    private String json;
+    private byte[] snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        todos = TodoFixtures.todos(size);
+        StringWriter writer = new StringWriter();
+        TodoCodec.writeJson(writer, todos);
+        json = writer.toString();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TodoCodec.writeSnapshot(new DataOutputStream(bytes), todos);
+        snapshot = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public List<Todo> readJson() throws IOException {
+        return TodoCodec.readJson(new StringReader(json));
+    }
+
+    @Benchmark
+    public String writeJson() throws IOException {
+        StringWriter writer = new StringWriter(json.length());
+        TodoCodec.writeJson(writer, todos);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public List<Todo> readSnapshot() throws IOException {
+        return TodoCodec.readSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)));
+    }
+
+    @Benchmark
+    public byte[] writeSnapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(snapshot.length);
+        TodoCodec.writeSnapshot(new DataOutputStream(bytes), todos);
+        return bytes.toByteArray();
+    }
+}
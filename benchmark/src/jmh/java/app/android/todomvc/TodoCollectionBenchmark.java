@@ -0,0 +1,74 @@
+package app.android.todomvc;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// The in-memory list work left beside the database: building search results,
+// paging them, changing and finding todos in them, and planning a move.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TodoCollectionBenchmark {
+
+    // Rows the adapter loads per page, TodoPager.PAGE_SIZE
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int size;
+
+    private List<Todo> todos;
+    private TodoCollection all;
+    private TodoCollection rest;
+    private Todo target;
+    private Todo added;
+
+    @Setup
+    public void setUp() {
+        todos = TodoFixtures.todos(size);
+        all = TodoCollection.of(todos, true);
+        target = all.get(size / 2);
+        rest = all.without(target);
+        added = new Todo(new TodoId(1, 1), "New todo", false, size + 1);
+    }
+
+    @Benchmark
+    public TodoCollection build() {
+        return TodoCollection.of(todos, false);
+    }
+
+    @Benchmark
+    public List<Todo> page() {
+        return all.load(0, Math.min(PAGE_SIZE, all.size()));
+    }
+
+    // Add and remove run as a pair so the collection keeps its size.
+    @Benchmark
+    public TodoCollection withAndWithout() {
+        return all.with(added).without(added);
+    }
+
+    @Benchmark
+    public Todo find() {
+        return all.get(target.getId());
+    }
+
+    // To the top, which takes one new order
+    @Benchmark
+    public List<Todo> planMoveToTop() {
+        return TodoMoves.planMove(target, 0, rest);
+    }
+
+    // The fixtures' orders are packed tight, so this respaces neighbours.
+    @Benchmark
+    public List<Todo> planMoveIntoAFullGap() {
+        return TodoMoves.planMove(target, rest.size() / 4, rest);
+    }
+}
@@ -0,0 +1,36 @@
+package app.android.todomvc;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+// Deterministic todo lists for the benchmarks, so runs are comparable.
+final class TodoFixtures {
+
+    private static final String[] WORDS = {
+            "buy", "milk", "call", "mom", "write", "report", "fix", "bike",
+            "book", "flights", "pay", "rent", "water", "plants", "read", "paper"
+    };
+
+    private TodoFixtures() {}
+
+    // In display order with orders assigned; roughly a third are completed.
+    static ArrayList<Todo> todos(int count) {
+        Random random = new Random(count);
+        ArrayList<Todo> todos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TodoId id = new TodoId(random.nextLong(), random.nextLong());
+            todos.add(new Todo(id, title(random), random.nextInt(3) == 0, count - i));
+        }
+        return todos;
+    }
+
+    private static String title(Random random) {
+        StringBuilder title = new StringBuilder();
+        int words = 2 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) title.append(' ');
+            title.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return title.toString();
+    }
+}
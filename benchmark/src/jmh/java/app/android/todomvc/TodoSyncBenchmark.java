@@ -0,0 +1,82 @@
+package app.android.todomvc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Syncing a few edits between two devices that share a long list, through the
+// in-process server. Besides the time, reports the bytes one round trip of each
+// device sent and received, which should depend on the edits, not the list.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TodoSyncBenchmark {
+
+    @Param({"1000", "20000"})
+    public int size;
+
+    @Param({"1", "10"})
+    public int edits;
+
+    // Set, not added to, by each invocation, so they read as one invocation's bytes.
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Traffic {
+        public long bytesUp;
+        public long bytesDown;
+    }
+
+    private TodoLoopbackServer server;
+    private TodoReplica device;
+    private TodoReplica otherDevice;
+    private List<Todo> todos;
+    private long stamp;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new TodoLoopbackServer();
+        device = new TodoReplica();
+        otherDevice = new TodoReplica();
+        todos = TodoFixtures.todos(size);
+        device.merge(TodoChange.list(TodoList.DEFAULT_ID, TodoList.DEFAULT_NAME, nextStamp()), true);
+        for (Todo todo : todos) {
+            device.merge(TodoChange.of(TodoList.DEFAULT_ID, todo, nextStamp()), true);
+        }
+        device.sync(server);
+        otherDevice.sync(server);
+    }
+
+    // One device toggles a few todos and syncs; the other syncs and gets them.
+    @Benchmark
+    public int syncEdits(Traffic traffic) throws IOException {
+        for (int i = 0; i < edits; i++) {
+            Todo todo = todos.get(next++ % todos.size());
+            TodoChange change = device.get(todo.getId());
+            device.merge(new TodoChange(todo.getId(), change.getListId(), change.getTitle(), !change.isCompleted(),
+                    change.getOrder(), change.getCreated(), change.getDue(), change.getTitleStamp(), nextStamp(),
+                    change.getOrderStamp(), change.getDueStamp(), 0), true);
+        }
+        long received = server.getBytesReceived();
+        long sent = server.getBytesSent();
+        device.sync(server);
+        int merged = otherDevice.sync(server);
+        traffic.bytesUp = server.getBytesReceived() - received;
+        traffic.bytesDown = server.getBytesSent() - sent;
+        return merged;
+    }
+
+    private long nextStamp() {
+        stamp = TodoChange.nextStamp(stamp, System.currentTimeMillis());
+        return stamp;
+    }
+}